@@ -39,6 +39,23 @@ public final class BlockPosition {
         return z;
     }
 
+    // Packs a block position into a long without the world, using 26 bits for x and z and 12 bits for y
+    public static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | ((long) y & 0xFFF);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
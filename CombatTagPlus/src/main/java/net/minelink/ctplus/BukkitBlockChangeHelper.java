@@ -0,0 +1,87 @@
+package net.minelink.ctplus;
+
+import net.minelink.ctplus.compat.api.BlockChangeBatch;
+import net.minelink.ctplus.compat.api.BlockChangeHelper;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Fallback used when there is no compat helper for the running server, sends every change on its own.
+ */
+final class BukkitBlockChangeHelper implements BlockChangeHelper {
+
+    // ChunkSnapshot accessors by material, only present on 1.13 and up
+    private final Method getBlockType;
+
+    private final Method getData;
+
+    BukkitBlockChangeHelper() {
+        Method getBlockType = null;
+        Method getData = null;
+
+        try {
+            getBlockType = ChunkSnapshot.class.getMethod("getBlockType", int.class, int.class, int.class);
+            getData = ChunkSnapshot.class.getMethod("getData", int.class, int.class, int.class);
+        } catch (NoSuchMethodException ignore) {}
+
+        this.getBlockType = getBlockType;
+        this.getData = getData;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void sendBlockChanges(Player player, BlockChangeBatch batch) {
+        Location location = new Location(player.getWorld(), 0, 0, 0);
+
+        for (BlockChangeBatch.Section section : batch.getSections()) {
+            for (int i = 0; i < section.size(); i++) {
+                location.setX(section.getX(i));
+                location.setY(section.getY(i));
+                location.setZ(section.getZ(i));
+                player.sendBlockChange(location, section.getMaterial(i), section.getData(i));
+            }
+        }
+    }
+
+    @Override
+    public boolean isAir(ChunkSnapshot chunk, int x, int y, int z) {
+        return chunk.isSectionEmpty(y >> 4) || getBlockType(chunk, x, y, z) == Material.AIR;
+    }
+
+    @Override
+    public void addBlock(BlockChangeBatch batch, ChunkSnapshot chunk, int x, int y, int z) {
+        batch.add(x, y, z, getBlockType(chunk, x, y, z), getData(chunk, x, y, z));
+    }
+
+    @SuppressWarnings("deprecation")
+    private Material getBlockType(ChunkSnapshot chunk, int x, int y, int z) {
+        if (getBlockType == null) {
+            return Material.getMaterial(chunk.getBlockTypeId(x & 15, y, z & 15));
+        }
+
+        return (Material) invoke(getBlockType, chunk, x, y, z);
+    }
+
+    @SuppressWarnings("deprecation")
+    private byte getData(ChunkSnapshot chunk, int x, int y, int z) {
+        if (getData == null) {
+            return (byte) chunk.getBlockData(x & 15, y, z & 15);
+        }
+
+        return ((Integer) invoke(getData, chunk, x, y, z)).byteValue();
+    }
+
+    private static Object invoke(Method method, ChunkSnapshot chunk, int x, int y, int z) {
+        try {
+            return method.invoke(chunk, x & 15, y, z & 15);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package net.minelink.ctplus;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Bypass permissions of a player resolved up front, so hot event handlers only test a bit instead of going through
+ * the permission system.
+ */
+public final class CombatProfile {
+
+    public enum Bypass {
+        TAG("ctplus.bypass.tag"),
+        COMMAND("ctplus.bypass.command"),
+        BLOCK_EDIT("ctplus.bypass.blockedit"),
+        STORAGE_ACCESS("ctplus.bypass.storageaccess"),
+        ENDERPEARL("ctplus.bypass.enderpearl"),
+        FLYING("ctplus.bypass.flying"),
+        TELEPORT("ctplus.bypass.teleport"),
+        CRAFT("ctplus.bypass.craft");
+
+        private static final Bypass[] VALUES = values();
+
+        private final String permission;
+
+        private final int mask;
+
+        Bypass(String permission) {
+            this.permission = permission;
+            this.mask = 1 << ordinal();
+        }
+
+        public String getPermission() {
+            return permission;
+        }
+
+    }
+
+    private volatile int bypasses;
+
+    CombatProfile(Player player) {
+        resolve(player);
+    }
+
+    void resolve(Player player) {
+        int bypasses = 0;
+        for (Bypass bypass : Bypass.VALUES) {
+            if (player.hasPermission(bypass.permission)) {
+                bypasses |= bypass.mask;
+            }
+        }
+
+        this.bypasses = bypasses;
+    }
+
+    public boolean canBypass(Bypass bypass) {
+        return (bypasses & bypass.mask) != 0;
+    }
+
+}
@@ -1,5 +1,6 @@
 package net.minelink.ctplus;
 
+import net.minelink.ctplus.compat.api.BlockChangeHelper;
 import net.minelink.ctplus.compat.api.NpcNameGeneratorFactory;
 import net.minelink.ctplus.compat.api.NpcPlayerHelper;
 import net.minelink.ctplus.hook.Hook;
@@ -41,8 +42,12 @@ public final class CombatTagPlus extends JavaPlugin {
 
     private NpcPlayerHelper npcPlayerHelper;
 
+    private BlockChangeHelper blockChangeHelper;
+
     private NpcManager npcManager;
 
+    private PlayerDataWriter playerDataWriter;
+
     public PlayerCache getPlayerCache() {
         return playerCache;
     }
@@ -63,10 +68,18 @@ public final class CombatTagPlus extends JavaPlugin {
         return npcPlayerHelper;
     }
 
+    public BlockChangeHelper getBlockChangeHelper() {
+        return blockChangeHelper;
+    }
+
     public NpcManager getNpcManager() {
         return npcManager;
     }
 
+    public PlayerDataWriter getPlayerDataWriter() {
+        return playerDataWriter;
+    }
+
     @Override
     public void onEnable() {
         // Load settings
@@ -84,11 +97,15 @@ public final class CombatTagPlus extends JavaPlugin {
             return;
         }
 
+        loadBlockChangeHelper();
+
         // Initialize plugin state
         hookManager = new HookManager(this);
         tagManager = new TagManager(this);
+        tagManager.restore();
         if (npcPlayerHelper != null) {
             npcManager = new NpcManager(this);
+            playerDataWriter = new PlayerDataWriter(this);
         }
 
         NpcNameGeneratorFactory.setNameGenerator(new NpcNameGeneratorImpl(this));
@@ -106,6 +123,7 @@ public final class CombatTagPlus extends JavaPlugin {
         }
 
         // Register event listeners
+        Bukkit.getPluginManager().registerEvents(getHookManager(), this);
         Bukkit.getPluginManager().registerEvents(new ForceFieldListener(this), this);
         Bukkit.getPluginManager().registerEvents(new InstakillListener(this), this);
 
@@ -123,12 +141,26 @@ public final class CombatTagPlus extends JavaPlugin {
         // Anti-SafeZone task
         ForceFieldTask.run(this);
 
+        // Combat timer display task
+        TagUpdateTask.start(this);
+
+        // Show restored tags to players that stayed online through a reload
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            TagUpdateTask.run(this, player);
+        }
+
+        // Expire combat tags as soon as they run out
+        Bukkit.getScheduler().runTaskTimer(this, new Runnable() {
+            @Override
+            public void run() {
+                getTagManager().expireTags();
+            }
+        }, 1, 1);
+
         // Periodic task for purging unused data
         Bukkit.getScheduler().runTaskTimer(this, new Runnable() {
             @Override
             public void run() {
-                getTagManager().purgeExpired();
-                TagUpdateTask.purgeFinished();
                 SafeLogoutTask.purgeFinished();
             }
         }, 3600, 3600);
@@ -137,6 +169,19 @@ public final class CombatTagPlus extends JavaPlugin {
     @Override
     public void onDisable() {
         TagUpdateTask.cancelTasks(this);
+
+        // NPCs are despawned first so neither their player data nor the journal is left behind
+        if (npcManager != null) {
+            npcManager.shutdown();
+        }
+
+        if (tagManager != null) {
+            tagManager.shutdown();
+        }
+
+        if (playerDataWriter != null) {
+            playerDataWriter.shutdown();
+        }
     }
 
     private boolean checkVersionCompatibility() {
@@ -168,6 +213,22 @@ public final class CombatTagPlus extends JavaPlugin {
         return true;
     }
 
+    private void loadBlockChangeHelper() {
+        Class<?> helperClass = ReflectionUtils.getCompatClass("BlockChangeHelperImpl");
+
+        // Fall back to sending block changes one at a time
+        if (helperClass == null) {
+            blockChangeHelper = new BukkitBlockChangeHelper();
+            return;
+        }
+
+        try {
+            blockChangeHelper = (BlockChangeHelper) helperClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void integrateFactions() {
         if (!getSettings().useFactions()) {
             return;
@@ -291,6 +352,7 @@ public final class CombatTagPlus extends JavaPlugin {
         if (cmd.getName().equals("ctplusreload")) {
             reloadConfig();
             getSettings().load();
+            getPlayerCache().refreshProfiles();
             if (sender instanceof Player) {
                 sender.sendMessage(GREEN + getName() + " config reloaded.");
             }
@@ -307,7 +369,7 @@ public final class CombatTagPlus extends JavaPlugin {
             }
 
             String duration = settings.formatDuration(tag.getTagDuration());
-            sender.sendMessage(getSettings().getCommandTagMessage().replace("{time}", duration));
+            sender.sendMessage(getSettings().getCommandTagMessageTemplate().render("time", duration));
         } else if (cmd.getName().equals("ctpluslogout")) {
             if (!(sender instanceof Player)) return false;
 
@@ -10,6 +10,8 @@ public final class Npc {
 
     private final Player entity;
 
+    private NpcState spawnState;
+
     Npc(NpcPlayerHelper helper, Player entity) {
         this.identity = helper.getIdentity(entity);
         this.entity = entity;
@@ -23,4 +25,12 @@ public final class Npc {
         return entity;
     }
 
+    public NpcState getSpawnState() {
+        return spawnState;
+    }
+
+    void setSpawnState(NpcState spawnState) {
+        this.spawnState = spawnState;
+    }
+
 }
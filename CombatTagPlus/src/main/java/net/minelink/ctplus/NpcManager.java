@@ -2,7 +2,9 @@ package net.minelink.ctplus;
 
 import net.minelink.ctplus.event.NpcDespawnEvent;
 import net.minelink.ctplus.event.NpcDespawnReason;
+import net.minelink.ctplus.task.NpcDespawnQueue;
 import net.minelink.ctplus.task.NpcDespawnTask;
+import net.minelink.ctplus.task.NpcSpawnQueue;
 import org.bukkit.Bukkit;
 import org.bukkit.Effect;
 import org.bukkit.Location;
@@ -11,7 +13,10 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.metadata.FixedMetadataValue;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -24,8 +29,29 @@ public final class NpcManager {
 
     private final Map<Npc, NpcDespawnTask> despawnTasks = new HashMap<>();
 
+    private final NpcDespawnQueue despawnQueue;
+
+    private final NpcSpawnQueue spawnQueue;
+
     NpcManager(CombatTagPlus plugin) {
         this.plugin = plugin;
+
+        // NPCs join the world a few at a time, each batch sharing its player info packets
+        this.spawnQueue = new NpcSpawnQueue(plugin);
+        this.spawnQueue.start();
+
+        // A single task despawns every NPC in deadline order
+        this.despawnQueue = new NpcDespawnQueue(plugin);
+        this.despawnQueue.start();
+    }
+
+    public void prepare(Player player) {
+        plugin.getNpcPlayerHelper().prepare(player);
+    }
+
+    // Prepared data is only worth keeping for players that may still combat log
+    public void discardPrepared(UUID playerId) {
+        plugin.getNpcPlayerHelper().discardPrepared(playerId);
     }
 
     public Npc spawn(Player player) {
@@ -36,6 +62,7 @@ public final class NpcManager {
         // Spawn fake player entity
         npc = new Npc(plugin.getNpcPlayerHelper(), plugin.getNpcPlayerHelper().spawn(player));
         spawnedNpcs.put(player.getUniqueId(), npc);
+        plugin.getTagManager().npcSpawned(player.getUniqueId());
 
         Player entity = npc.getEntity();
 
@@ -55,15 +82,32 @@ public final class NpcManager {
         entity.getInventory().setArmorContents(player.getInventory().getArmorContents());
         entity.addPotionEffects(player.getActivePotionEffects());
 
-        // Should fix some visual glitches, such as health bars displaying zero
-        // TODO: Find another solution. This one causes the player to be added to the NMS PlayerList, that's not ideal.
-        entity.teleport(player, PlayerTeleportEvent.TeleportCause.PLUGIN);
+        // Remember what the NPC started out as so its despawn only has to hand back what changed
+        npc.setSpawnState(NpcState.capture(plugin.getNpcPlayerHelper(), entity));
 
-        // Send equipment packets to nearby players
-        plugin.getNpcPlayerHelper().updateEquipment(entity);
+        // The NPC is registered now but joins the world once the spawn queue gets to it,
+        // the entity tracker sends its equipment along with it
+        spawnQueue.add(npc);
 
         entity.setMetadata("NPC", new FixedMetadataValue(plugin, true));
 
+        // Create and start the NPCs despawn task
+        long despawnTime = System.currentTimeMillis() + plugin.getSettings().getNpcDespawnMillis();
+        NpcDespawnTask despawnTask = new NpcDespawnTask(despawnQueue, npc, despawnTime);
+        despawnTask.start();
+        despawnTasks.put(npc, despawnTask);
+
+        return npc;
+    }
+
+    // Called by the spawn queue once the NPC has joined the world
+    public void addedToWorld(Npc npc) {
+        Player entity = npc.getEntity();
+
+        // Should fix some visual glitches, such as health bars displaying zero
+        // TODO: Find another solution. This one causes the player to be added to the NMS PlayerList, that's not ideal.
+        entity.teleport(entity.getLocation(), PlayerTeleportEvent.TeleportCause.PLUGIN);
+
         // Play a nice little effect indicating the NPC was spawned
         if (plugin.getSettings().playEffect()) {
             Location l = entity.getLocation();
@@ -71,14 +115,6 @@ public final class NpcManager {
             // NOTE: Do not directly access the values in the sound enum, as that can change across versions\
             l.getWorld().playSound(l, EXPLODE_SOUND, 0.9F, 0);
         }
-
-        // Create and start the NPCs despawn task
-        long despawnTime = System.currentTimeMillis() + plugin.getSettings().getNpcDespawnMillis();
-        NpcDespawnTask despawnTask = new NpcDespawnTask(plugin, npc, despawnTime);
-        despawnTask.start();
-        despawnTasks.put(npc, despawnTask);
-
-        return npc;
     }
 
     public void despawn(Npc npc) {
@@ -101,12 +137,67 @@ public final class NpcManager {
             despawnTasks.remove(npc);
         }
 
-        // Remove the NPC entity from the world
-        plugin.getNpcPlayerHelper().despawn(npc.getEntity());
+        // Remove the NPC entity from the world, unless it never made it there
+        if (!spawnQueue.cancel(npc)) {
+            plugin.getNpcPlayerHelper().despawn(npc.getEntity());
+            spawnQueue.remove(npc);
+        }
         spawnedNpcs.remove(npc.getIdentity().getId());
+        plugin.getTagManager().npcDespawned(npc.getIdentity().getId());
+
         npc.getEntity().removeMetadata("NPC", plugin);
     }
 
+    // Hands whatever the NPC changed back to its player, whether they're online or not
+    public void saveState(Npc npc) {
+        Player npcPlayer = npc.getEntity();
+        NpcState spawnState = npc.getSpawnState();
+
+        // Save player data when the NPC despawns, unless the data saved at logout is still accurate
+        Player player = plugin.getPlayerCache().getPlayer(npc.getIdentity().getId());
+        if (player == null) {
+            if (spawnState.isModified(npcPlayer)) {
+                plugin.getPlayerDataWriter().sync(npcPlayer);
+            }
+            return;
+        }
+
+        // Copy whatever changed on the NPC to the online player
+        spawnState.applyChanges(npcPlayer, player);
+    }
+
+    void shutdown() {
+        // Listeners no longer receive events once the plugin is disabled, so NPC state is saved here directly
+        for (Npc npc : new ArrayList<>(spawnedNpcs.values())) {
+            saveState(npc);
+            despawn(npc);
+        }
+
+        // Send the player info removals that would otherwise wait for the next tick
+        spawnQueue.run();
+        spawnQueue.stop();
+        despawnQueue.stop();
+    }
+
+    public void createPlayerList(Player player) {
+        plugin.getNpcPlayerHelper().addPlayerInfo(Collections.singleton(player), getNpcEntities());
+    }
+
+    public void removePlayerList(Player player) {
+        plugin.getNpcPlayerHelper().removePlayerInfo(Collections.singleton(player), getNpcEntities());
+    }
+
+    private List<Player> getNpcEntities() {
+        List<Player> entities = new ArrayList<>(spawnedNpcs.size());
+
+        // Player info isn't tied to a world, so every NPC goes to every player
+        for (Npc npc : spawnedNpcs.values()) {
+            entities.add(npc.getEntity());
+        }
+
+        return entities;
+    }
+
     public Npc getSpawnedNpc(UUID playerId) {
         return spawnedNpcs.get(playerId);
     }
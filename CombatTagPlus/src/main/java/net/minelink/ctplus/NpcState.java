@@ -0,0 +1,140 @@
+package net.minelink.ctplus;
+
+import net.minelink.ctplus.compat.api.NpcPlayerHelper;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * What a NPC looked like right after it was spawned, so a despawn only has to hand back what changed since.
+ */
+public final class NpcState {
+
+    private final int maximumAir;
+
+    private final int remainingAir;
+
+    private final double healthScale;
+
+    private final double maxHealth;
+
+    private final double health;
+
+    private final int totalExperience;
+
+    private final int foodLevel;
+
+    private final float exhaustion;
+
+    private final float saturation;
+
+    private final int fireTicks;
+
+    private final ItemStack[] contents;
+
+    private final ItemStack[] armorContents;
+
+    private final Set<PotionEffect> potionEffects;
+
+    private final NpcPlayerHelper helper;
+
+    private final Object offlineSyncState;
+
+    private NpcState(NpcPlayerHelper helper, Player npcPlayer) {
+        this.maximumAir = npcPlayer.getMaximumAir();
+        this.remainingAir = npcPlayer.getRemainingAir();
+        this.healthScale = npcPlayer.getHealthScale();
+        this.maxHealth = getRealMaxHealth(npcPlayer);
+        this.health = npcPlayer.getHealth();
+        this.totalExperience = npcPlayer.getTotalExperience();
+        this.foodLevel = npcPlayer.getFoodLevel();
+        this.exhaustion = npcPlayer.getExhaustion();
+        this.saturation = npcPlayer.getSaturation();
+        this.fireTicks = npcPlayer.getFireTicks();
+        this.contents = copy(npcPlayer.getInventory().getContents());
+        this.armorContents = copy(npcPlayer.getInventory().getArmorContents());
+        this.potionEffects = new HashSet<>(npcPlayer.getActivePotionEffects());
+        this.helper = helper;
+        this.offlineSyncState = helper.getOfflineSyncState(npcPlayer);
+    }
+
+    static NpcState capture(NpcPlayerHelper helper, Player npcPlayer) {
+        return new NpcState(helper, npcPlayer);
+    }
+
+    // True if an offline sync would write anything different from what the player's data held when the NPC spawned
+    public boolean isModified(Player npcPlayer) {
+        return !helper.getOfflineSyncState(npcPlayer).equals(offlineSyncState);
+    }
+
+    // Copies the fields the NPC changed onto the player, the rest of the player is left alone
+    public void applyChanges(Player npcPlayer, Player player) {
+        if (npcPlayer.getMaximumAir() != maximumAir) player.setMaximumAir(npcPlayer.getMaximumAir());
+        if (npcPlayer.getRemainingAir() != remainingAir) player.setRemainingAir(npcPlayer.getRemainingAir());
+        if (npcPlayer.getHealthScale() != healthScale) player.setHealthScale(npcPlayer.getHealthScale());
+
+        // Max health has to be in place before health so it isn't clamped to the old maximum
+        double realMaxHealth = getRealMaxHealth(npcPlayer);
+        if (realMaxHealth != maxHealth) player.setMaxHealth(realMaxHealth);
+        if (npcPlayer.getHealth() != health) player.setHealth(npcPlayer.getHealth());
+
+        if (npcPlayer.getTotalExperience() != totalExperience) player.setTotalExperience(npcPlayer.getTotalExperience());
+        if (npcPlayer.getFoodLevel() != foodLevel) player.setFoodLevel(npcPlayer.getFoodLevel());
+        if (npcPlayer.getExhaustion() != exhaustion) player.setExhaustion(npcPlayer.getExhaustion());
+        if (npcPlayer.getSaturation() != saturation) player.setSaturation(npcPlayer.getSaturation());
+        if (npcPlayer.getFireTicks() != fireTicks) player.setFireTicks(npcPlayer.getFireTicks());
+
+        // Only the slots that changed are written back
+        ItemStack[] npcContents = npcPlayer.getInventory().getContents();
+        for (int i = 0; i < npcContents.length && i < contents.length; i++) {
+            if (!Objects.equals(npcContents[i], contents[i])) {
+                player.getInventory().setItem(i, npcContents[i]);
+            }
+        }
+
+        ItemStack[] npcArmorContents = npcPlayer.getInventory().getArmorContents();
+        if (!Arrays.equals(npcArmorContents, armorContents)) {
+            player.getInventory().setArmorContents(npcArmorContents);
+        }
+
+        Set<PotionEffect> npcPotionEffects = new HashSet<>(npcPlayer.getActivePotionEffects());
+        if (!npcPotionEffects.equals(potionEffects)) {
+            player.addPotionEffects(npcPotionEffects);
+        }
+    }
+
+    private static ItemStack[] copy(ItemStack[] items) {
+        // Inventory contents mirror the live items, so they are cloned to keep the spawn state intact
+        ItemStack[] copy = new ItemStack[items.length];
+        for (int i = 0; i < items.length; i++) {
+            copy[i] = items[i] != null ? items[i].clone() : null;
+        }
+
+        return copy;
+    }
+
+    /*
+     * This is to prevent players with the health boost potion effect getting increased max-health.
+     * Player.getMaxHealth() returns the player's health including temporary boosts from potions.
+     * If we apply this to the new player with Player.setMaxHealth(), the previously temporary boost becomes permanent.
+     * Players can abuse this glitch repeatedly to get infinite amounts of max-health.
+     * To fix this, we simply remove any health boosts granted by potions.
+     */
+    @SuppressWarnings("deprecation")
+    private static double getRealMaxHealth(Player npcPlayer) {
+        double health = npcPlayer.getMaxHealth();
+        for (PotionEffect p : npcPlayer.getActivePotionEffects()) {
+            if (p.getType().equals(PotionEffectType.HEALTH_BOOST)) {
+                health -= (p.getAmplifier() + 1) * 4;
+            }
+        }
+        return health;
+    }
+
+}
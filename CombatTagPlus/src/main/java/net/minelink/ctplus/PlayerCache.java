@@ -14,14 +14,18 @@ public final class PlayerCache {
 
     private final Map<String, Player> nameCache = new HashMap<>();
 
+    private final Map<UUID, CombatProfile> profiles = new HashMap<>();
+
     public void addPlayer(Player player) {
         uuidCache.put(player.getUniqueId(), player);
         nameCache.put(player.getName().toLowerCase(), player);
+        profiles.put(player.getUniqueId(), new CombatProfile(player));
     }
 
     public void removePlayer(Player player) {
         uuidCache.remove(player.getUniqueId());
         nameCache.remove(player.getName().toLowerCase());
+        profiles.remove(player.getUniqueId());
     }
 
     public boolean isOnline(UUID id) {
@@ -40,6 +44,34 @@ public final class PlayerCache {
         return nameCache.get(name.toLowerCase());
     }
 
+    public CombatProfile getProfile(Player player) {
+        CombatProfile profile = profiles.get(player.getUniqueId());
+        if (profile != null) return profile;
+
+        // Only keep profiles of players in the cache, anyone else is resolved on the spot
+        profile = new CombatProfile(player);
+        if (uuidCache.containsKey(player.getUniqueId())) {
+            profiles.put(player.getUniqueId(), profile);
+        }
+
+        return profile;
+    }
+
+    // Resolves bypass permissions again, call this whenever a player's permissions may have changed
+    public CombatProfile refreshProfile(Player player) {
+        CombatProfile profile = profiles.get(player.getUniqueId());
+        if (profile == null) return getProfile(player);
+
+        profile.resolve(player);
+        return profile;
+    }
+
+    public void refreshProfiles() {
+        for (Player player : uuidCache.values()) {
+            refreshProfile(player);
+        }
+    }
+
     public Collection<Player> getPlayers() {
         return Collections.unmodifiableCollection(uuidCache.values());
     }
@@ -0,0 +1,91 @@
+package net.minelink.ctplus;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+public final class PlayerDataWriter {
+
+    private static final long SHUTDOWN_TIMEOUT = 30;
+
+    private final CombatTagPlus plugin;
+
+    private final Map<UUID, Runnable> snapshots = new ConcurrentHashMap<>();
+
+    private final Map<UUID, Future<?>> pendingWrites = new ConcurrentHashMap<>();
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("CombatTagPlus PlayerData Thread").build());
+
+    PlayerDataWriter(CombatTagPlus plugin) {
+        this.plugin = plugin;
+    }
+
+    public void sync(Player npcPlayer) {
+        // Take a snapshot of the NPC on the main thread
+        final UUID playerId = plugin.getNpcPlayerHelper().getIdentity(npcPlayer).getId();
+        Runnable write = plugin.getNpcPlayerHelper().createOfflineSync(npcPlayer);
+        if (write == null) return;
+
+        // Newer snapshots replace ones that haven't been written yet
+        snapshots.put(playerId, write);
+
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                Runnable write = snapshots.remove(playerId);
+                if (write != null) write.run();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                pendingWrites.remove(playerId, this);
+
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to save player data for " + playerId, e);
+                }
+            }
+        };
+
+        // Compress and write the snapshot on the I/O thread
+        pendingWrites.put(playerId, task);
+        executorService.execute(task);
+    }
+
+    public void await(UUID playerId) {
+        // Do nothing if there is no pending write for this player
+        Future<?> future = pendingWrites.get(playerId);
+        if (future == null) return;
+
+        // Writes run in order, so waiting on the latest one covers any before it
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignore) {
+            // Already logged by the write itself
+        }
+    }
+
+    void shutdown() {
+        // Flush pending writes before the plugin goes away
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for NPC player data to be saved");
+            }
+        } catch (InterruptedException ignore) {}
+    }
+
+}
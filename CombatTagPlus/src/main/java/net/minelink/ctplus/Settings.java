@@ -1,5 +1,7 @@
 package net.minelink.ctplus;
 
+import net.minelink.ctplus.util.CommandMatcher;
+import net.minelink.ctplus.util.MessageTemplate;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.Configuration;
@@ -176,17 +178,23 @@ public final class Settings {
         load();
     }
 
-    private int configVersion, latestConfigVersion, tagDuration, logoutWaitTime, npcDespawnTime, forceFieldRadius;
+    private static final TimeUnit[] DURATION_UNITS = { DAYS, HOURS, MINUTES, SECONDS };
+
+    private int configVersion, latestConfigVersion, tagDuration, logoutWaitTime, npcDespawnTime, npcSpawnTickBudget, forceFieldRadius;
     private byte forceFieldMaterialDamage;
     private boolean resetTagOnPearl, playEffect, alwaysSpawn, mobTagging, instantlyKill, spawnNPC, untagOnKick, onlyTagAttacker,
             disableSelfTagging, disableBlockEdit, disableStorageAccess, disableCreativeTags, disableEnderpearls, disableFlying,
             disableTeleportation, disableCrafting, resetDespawnTimeOnHit, generateRandomName, useBarApi, denySafezone,
-            denySafezoneEnderpearl, useForceFields, untagOnPluginTeleport;
+            denySafezoneEnderpearl, useForceFields, untagOnPluginTeleport, killOnLostNpc;
     private String tagMessage, tagUnknownMessage, untagMessage, logoutCancelledMessage, logoutSuccessMessage, logoutPendingMessage,
             disableBlockEditMessage, disableStorageAccessMessage, disableEnderpearlsMessage, disableFlyingMessage,
             disableTeleportationMessage, disableCraftingMessage, randomNamePrefix, killMessage, killMessageItem, barApiEndedMessage,
             barApiCountdownMessage, forceFieldMaterial, disabledCommandMessage, commandUntagMessage, commandTagMessage;
-    private List<String> commandWhitelist, commandBlacklist, untagOnKickBlacklist, disabledWorlds;
+    private List<String> untagOnKickBlacklist, disabledWorlds;
+    private CommandMatcher commandWhitelist, commandBlacklist;
+    private MessageTemplate tagMessageTemplate, logoutPendingMessageTemplate, killMessageTemplate, killMessageItemTemplate,
+            barApiCountdownMessageTemplate, disabledCommandMessageTemplate, commandTagMessageTemplate;
+    private String[] durationWords, durations, barApiCountdownMessages;
 
     private void reload() {
         this.configVersion = plugin.getConfig().getInt("config-version", 0);
@@ -194,6 +202,7 @@ public final class Settings {
         this.tagDuration = plugin.getConfig().getInt("tag-duration", 15);
         this.logoutWaitTime = plugin.getConfig().getInt("logout-wait-time", 10);
         this.npcDespawnTime = plugin.getConfig().getInt("npc-despawn-time", 60);
+        this.npcSpawnTickBudget = plugin.getConfig().getInt("npc-spawn-tick-budget", 5000);
         this.forceFieldRadius = plugin.getConfig().getInt("force-field-radius");
         this.forceFieldMaterialDamage = (byte) plugin.getConfig().getInt("force-field-material-damage");
 
@@ -214,6 +223,7 @@ public final class Settings {
         this.disableTeleportation = plugin.getConfig().getBoolean("disable-teleportation");
         this.disableCrafting =plugin.getConfig().getBoolean("disable-crafting");
         this.resetDespawnTimeOnHit = plugin.getConfig().getBoolean("reset-despawn-time-on-hit");
+        this.killOnLostNpc = plugin.getConfig().getBoolean("kill-on-lost-npc");
         this.generateRandomName = plugin.getConfig().getBoolean("generate-random-name");
         this.useBarApi = plugin.getConfig().getBoolean("barapi");
         this.denySafezone = plugin.getConfig().getBoolean("deny-safezone");
@@ -244,8 +254,26 @@ public final class Settings {
         this.commandUntagMessage = ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString("command-untag-message"));
         this.commandTagMessage = ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString("command-tag-message"));
 
-        this.commandWhitelist = plugin.getConfig().getStringList("command-whitelist");
-        this.commandBlacklist = plugin.getConfig().getStringList("command-blacklist");
+        this.commandWhitelist = CommandMatcher.compile(plugin.getConfig().getStringList("command-whitelist"));
+        this.commandBlacklist = CommandMatcher.compile(plugin.getConfig().getStringList("command-blacklist"));
+        this.tagMessageTemplate = MessageTemplate.compile(tagMessage);
+        this.logoutPendingMessageTemplate = MessageTemplate.compile(logoutPendingMessage);
+        this.killMessageTemplate = MessageTemplate.compile(killMessage);
+        this.killMessageItemTemplate = MessageTemplate.compile(killMessageItem);
+        this.barApiCountdownMessageTemplate = MessageTemplate.compile(barApiCountdownMessage);
+        this.disabledCommandMessageTemplate = MessageTemplate.compile(disabledCommandMessage);
+        this.commandTagMessageTemplate = MessageTemplate.compile(commandTagMessage);
+
+        // Durations and countdowns are formatted once per second value and reused from then on
+        this.durationWords = new String[DURATION_UNITS.length];
+        for (int i = 0; i < DURATION_UNITS.length; i++) {
+            String englishWord = DURATION_UNITS[i].name().toLowerCase(Locale.ENGLISH);
+            this.durationWords[i] = plugin.getConfig().getString("duration-words." + englishWord, englishWord);
+        }
+
+        this.durations = new String[Math.max(tagDuration, logoutWaitTime) + 1];
+        this.barApiCountdownMessages = new String[tagDuration + 1];
+
         this.untagOnKickBlacklist = plugin.getConfig().getStringList("untag-on-kick-blacklist");
         this.disabledWorlds = plugin.getConfig().getStringList("disabled-worlds");
     }
@@ -270,6 +298,10 @@ public final class Settings {
         return tagMessage;
     }
 
+    public MessageTemplate getTagMessageTemplate() {
+        return tagMessageTemplate;
+    }
+
     public String getTagUnknownMessage() {
         return tagUnknownMessage;
     }
@@ -310,6 +342,10 @@ public final class Settings {
         return logoutPendingMessage;
     }
 
+    public MessageTemplate getLogoutPendingMessageTemplate() {
+        return logoutPendingMessageTemplate;
+    }
+
     public boolean instantlyKill() {
         return instantlyKill;
     }
@@ -394,6 +430,14 @@ public final class Settings {
         return getNpcDespawnTime() * 1000;
     }
 
+    public int getNpcSpawnTickBudget() {
+        return npcSpawnTickBudget;
+    }
+
+    public boolean killOnLostNpc() {
+        return killOnLostNpc;
+    }
+
     public boolean resetDespawnTimeOnHit() {
         return resetDespawnTimeOnHit;
     }
@@ -414,6 +458,14 @@ public final class Settings {
         return killMessageItem;
     }
 
+    public MessageTemplate getKillMessageTemplate() {
+        return killMessageTemplate;
+    }
+
+    public MessageTemplate getKillMessageItemTemplate() {
+        return killMessageItemTemplate;
+    }
+
     public boolean useBarApi() {
         return useBarApi;
     }
@@ -426,6 +478,21 @@ public final class Settings {
         return barApiCountdownMessage;
     }
 
+    public String getBarApiCountdownMessage(int remainingSeconds) {
+        String[] messages = barApiCountdownMessages;
+        if (remainingSeconds < 0 || remainingSeconds >= messages.length) {
+            return barApiCountdownMessageTemplate.render("remaining", formatDuration(remainingSeconds));
+        }
+
+        String message = messages[remainingSeconds];
+        if (message == null) {
+            message = barApiCountdownMessageTemplate.render("remaining", formatDuration(remainingSeconds));
+            messages[remainingSeconds] = message;
+        }
+
+        return message;
+    }
+
     public boolean denySafezone() {
         return denySafezone;
     }
@@ -474,26 +541,12 @@ public final class Settings {
         return disabledCommandMessage;
     }
 
-    public boolean isCommandBlacklisted(String message) {
-        if (message.charAt(0) == '/') {
-            message = message.substring(1);
-        }
-
-        message = message.toLowerCase();
-
-        for (String command : commandWhitelist) {
-            if (command.equals("*") || message.equals(command) || message.startsWith(command + " ")) {
-                return false;
-            }
-        }
-
-        for (String command : commandBlacklist) {
-            if (command.equals("*") || message.equals(command) || message.startsWith(command + " ")) {
-                return true;
-            }
-        }
+    public MessageTemplate getDisabledCommandMessageTemplate() {
+        return disabledCommandMessageTemplate;
+    }
 
-        return false;
+    public boolean isCommandBlacklisted(String message) {
+        return !commandWhitelist.matches(message) && commandBlacklist.matches(message);
     }
 
     public boolean untagOnPluginTeleport() {
@@ -508,24 +561,48 @@ public final class Settings {
         return commandTagMessage;
     }
 
+    public MessageTemplate getCommandTagMessageTemplate() {
+        return commandTagMessageTemplate;
+    }
+
     public String formatDuration(long seconds) {
-        List<String> parts = new ArrayList<>();
-        for (TimeUnit timeUnit : new TimeUnit[] { DAYS, HOURS, MINUTES, SECONDS }) {
-            long duration = seconds / SECONDS.convert(1, timeUnit);
+        String[] durations = this.durations;
+        if (seconds < 0 || seconds >= durations.length) {
+            return buildDuration(seconds);
+        }
+
+        String formatted = durations[(int) seconds];
+        if (formatted == null) {
+            formatted = buildDuration(seconds);
+            durations[(int) seconds] = formatted;
+        }
+
+        return formatted;
+    }
+
+    private String buildDuration(long seconds) {
+        StringBuilder builder = new StringBuilder();
+        int lastSeparator = -1;
+
+        for (int i = 0; i < DURATION_UNITS.length; i++) {
+            long duration = seconds / SECONDS.convert(1, DURATION_UNITS[i]);
             if (duration > 0) {
-                seconds -= SECONDS.convert(duration, timeUnit);
-                String englishWord = timeUnit.name().toLowerCase(Locale.ENGLISH);
-                String durationWord = plugin.getConfig().getString("duration-words." + englishWord, englishWord);
-                parts.add(duration + " " + durationWord);
+                seconds -= SECONDS.convert(duration, DURATION_UNITS[i]);
+
+                if (builder.length() > 0) {
+                    lastSeparator = builder.length();
+                    builder.append(", ");
+                }
+
+                builder.append(duration).append(' ').append(durationWords[i]);
             }
         }
-        String formatted = StringUtils.join(parts, ", ");
-        if (formatted.contains(", ")) {
-            int index = formatted.lastIndexOf(", ");
-            StringBuilder builder = new StringBuilder(formatted);
-            formatted = builder.replace(index, index + 2, " and ").toString();
+
+        // The last two parts are joined with "and" instead of a comma
+        if (lastSeparator != -1) {
+            builder.replace(lastSeparator, lastSeparator + 2, " and ");
         }
 
-        return formatted;
+        return builder.toString();
     }
 }
@@ -2,7 +2,6 @@ package net.minelink.ctplus;
 
 import net.minelink.ctplus.compat.api.NpcPlayerHelper;
 import org.bukkit.entity.Player;
-import org.bukkit.util.NumberConversions;
 
 import java.util.UUID;
 
@@ -46,6 +45,16 @@ public final class Tag {
         }
     }
 
+    // Restores a tag read back from the tag journal
+    Tag(long tagTime, long expireTime, UUID victimId, String victimName, UUID attackerId, String attackerName) {
+        this.tagTime = tagTime;
+        this.expireTime = expireTime;
+        this.victimId = victimId;
+        this.victimName = victimName;
+        this.attackerId = attackerId;
+        this.attackerName = attackerName;
+    }
+
     public long getTagTime() {
         return tagTime;
     }
@@ -76,11 +85,11 @@ public final class Tag {
 
     public int getTagDuration() {
         long currentTime = System.currentTimeMillis();
-        return expireTime > currentTime ? NumberConversions.ceil((expireTime - currentTime) / 1000D) : 0;
+        return expireTime > currentTime ? (int) ((expireTime - currentTime + 999) / 1000) : 0;
     }
 
     public boolean isExpired() {
-        return getTagDuration() < 1;
+        return expireTime <= System.currentTimeMillis();
     }
 
 }
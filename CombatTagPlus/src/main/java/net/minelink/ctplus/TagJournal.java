@@ -0,0 +1,413 @@
+package net.minelink.ctplus;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Append-only record of tag changes and combat log NPCs, so both survive restarts and reloads. Changes are queued by the main thread and
+ * written to a memory mapped journal on a background thread. Whenever the journal fills up, the tags it still holds
+ * are compacted into a snapshot file and the journal starts over.
+ */
+final class TagJournal {
+
+    private static final int JOURNAL_SIZE = 4 * 1024 * 1024;
+
+    private static final byte TAG = 1;
+
+    private static final byte UNTAG = 2;
+
+    private static final byte NPC_SPAWN = 3;
+
+    private static final byte NPC_DESPAWN = 4;
+
+    private final CombatTagPlus plugin;
+
+    private final File journalFile;
+
+    private final File snapshotFile;
+
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("CombatTagPlus Tag Journal Thread").build());
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    // Everything below is only touched by the journal thread once replay has finished
+
+    private final Map<UUID, Entry> live = new HashMap<>();
+
+    private final Set<UUID> npcs = new HashSet<>();
+
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(128);
+
+    private FileChannel channel;
+
+    private MappedByteBuffer journal;
+
+    private volatile boolean enabled;
+
+    private List<UUID> abandonedNpcs = new ArrayList<>();
+
+    TagJournal(CombatTagPlus plugin) {
+        this.plugin = plugin;
+        this.journalFile = new File(plugin.getDataFolder(), "tags.journal");
+        this.snapshotFile = new File(plugin.getDataFolder(), "tags.snapshot");
+    }
+
+    // Reads back every tag that hasn't expired yet, must be called once before anything is written
+    List<Entry> replay() {
+        try {
+            if (snapshotFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+                    while (true) {
+                        int length = in.readInt();
+                        if (length <= 0) break;
+
+                        apply(read(in));
+                    }
+                } catch (EOFException ignore) {
+                    // Snapshots are replaced in one step, but an old one may still lack its end marker
+                }
+            }
+
+            if (!journalFile.getParentFile().exists() && !journalFile.getParentFile().mkdirs()) {
+                throw new IOException("Failed to create " + journalFile.getParentFile());
+            }
+
+            channel = new RandomAccessFile(journalFile, "rw").getChannel();
+            journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+
+            // Stop at the end marker, or at whatever a crash left half written
+            while (journal.remaining() >= 4) {
+                int length = journal.getInt();
+                if (length <= 0 || length > journal.remaining()) break;
+
+                byte[] record = new byte[length];
+                journal.get(record);
+                try {
+                    apply(read(new DataInputStream(new ByteArrayInputStream(record))));
+                } catch (IOException e) {
+                    break;
+                }
+            }
+
+            // Start the journal over from what was just read
+            compact();
+            abandonedNpcs = new ArrayList<>(npcs);
+            enabled = true;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read the tag journal, tags will not persist", e);
+        }
+
+        return new ArrayList<>(live.values());
+    }
+
+    // Players whose NPC was lost to a crash before it could despawn, as read by replay
+    List<UUID> getAbandonedNpcs() {
+        return abandonedNpcs;
+    }
+
+    void tag(UUID playerId, Tag tag, boolean victim) {
+        enqueue(new Entry(playerId, victim, tag.getTagTime(), tag.getExpireTime(), tag.getVictimId(),
+                tag.getVictimName(), tag.getAttackerId(), tag.getAttackerName()));
+    }
+
+    void untag(UUID playerId) {
+        enqueue(new Entry(UNTAG, playerId));
+    }
+
+    void npcSpawned(UUID playerId) {
+        enqueue(new Entry(NPC_SPAWN, playerId));
+    }
+
+    void npcDespawned(UUID playerId) {
+        enqueue(new Entry(NPC_DESPAWN, playerId));
+    }
+
+    void shutdown() {
+        // Write anything still queued before the plugin goes away
+        if (enabled) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                    close();
+                }
+            });
+        }
+
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ignore) {}
+    }
+
+    private void enqueue(Entry entry) {
+        if (!enabled) return;
+
+        pending.add(entry);
+
+        // Changes made while a write is pending join that write
+        if (flushScheduled.compareAndSet(false, true)) {
+            executorService.execute(flushTask);
+        }
+    }
+
+    private void flush() {
+        if (!enabled || pending.isEmpty()) return;
+
+        try {
+            Entry entry;
+            while ((entry = pending.poll()) != null) {
+                apply(entry);
+                append(entry);
+            }
+
+            journal.force();
+        } catch (IOException e) {
+            enabled = false;
+            plugin.getLogger().log(Level.SEVERE, "Failed to write the tag journal, tags will no longer persist", e);
+        }
+    }
+
+    private void apply(Entry entry) {
+        switch (entry.op) {
+            case TAG:
+                live.put(entry.playerId, entry);
+                break;
+            case UNTAG:
+                live.remove(entry.playerId);
+                break;
+            case NPC_SPAWN:
+                npcs.add(entry.playerId);
+                break;
+            case NPC_DESPAWN:
+                npcs.remove(entry.playerId);
+                break;
+        }
+    }
+
+    private void append(Entry entry) throws IOException {
+        recordBuffer.reset();
+        write(entry, new DataOutputStream(recordBuffer));
+        byte[] record = recordBuffer.toByteArray();
+
+        // The snapshot already includes this entry, so a full journal is simply compacted
+        int position = journal.position();
+        if (position + 4 + record.length + 4 > JOURNAL_SIZE) {
+            compact();
+            return;
+        }
+
+        // The length goes in last, so a reader never sees it ahead of the record it describes
+        journal.position(position + 4);
+        journal.put(record);
+        journal.putInt(journal.position(), 0);
+        journal.putInt(position, record.length);
+    }
+
+    private void compact() throws IOException {
+        long currentTime = System.currentTimeMillis();
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            for (Entry entry : live.values()) {
+                if (entry.expireTime <= currentTime) continue;
+
+                writeRecord(entry, out);
+            }
+
+            for (UUID playerId : npcs) {
+                writeRecord(new Entry(NPC_SPAWN, playerId), out);
+            }
+
+            out.writeInt(0);
+
+            // The snapshot has to be on disk before it can replace the old one
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        // Replace the old snapshot in one step, the journal is only reset once the new one is in place
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Iterator<Entry> it = live.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expireTime <= currentTime) it.remove();
+        }
+
+        journal.putInt(0, 0);
+        journal.position(0);
+        journal.force();
+    }
+
+    private void writeRecord(Entry entry, DataOutputStream out) throws IOException {
+        recordBuffer.reset();
+        write(entry, new DataOutputStream(recordBuffer));
+        out.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(out);
+    }
+
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close the tag journal", e);
+        }
+    }
+
+    private static void write(Entry entry, DataOutput out) throws IOException {
+        out.writeByte(entry.op);
+        writeId(entry.playerId, out);
+        if (entry.op != TAG) return;
+
+        out.writeBoolean(entry.victim);
+        out.writeLong(entry.tagTime);
+        out.writeLong(entry.expireTime);
+        writeId(entry.victimId, out);
+        writeName(entry.victimName, out);
+        writeId(entry.attackerId, out);
+        writeName(entry.attackerName, out);
+    }
+
+    private static Entry read(DataInput in) throws IOException {
+        byte op = in.readByte();
+        UUID playerId = readId(in);
+
+        switch (op) {
+            case UNTAG:
+            case NPC_SPAWN:
+            case NPC_DESPAWN:
+                return new Entry(op, playerId);
+            case TAG:
+                return new Entry(playerId, in.readBoolean(), in.readLong(), in.readLong(), readId(in), readName(in),
+                        readId(in), readName(in));
+            default:
+                throw new IOException("Unknown tag journal record " + op);
+        }
+    }
+
+    private static void writeId(UUID id, DataOutput out) throws IOException {
+        out.writeBoolean(id != null);
+        if (id == null) return;
+
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readId(DataInput in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeName(String name, DataOutput out) throws IOException {
+        out.writeBoolean(name != null);
+        if (name != null) out.writeUTF(name);
+    }
+
+    private static String readName(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static final class Entry {
+
+        private final byte op;
+
+        private final UUID playerId;
+
+        private final boolean victim;
+
+        private final long tagTime;
+
+        private final long expireTime;
+
+        private final UUID victimId;
+
+        private final String victimName;
+
+        private final UUID attackerId;
+
+        private final String attackerName;
+
+        private Entry(byte op, UUID playerId) {
+            this(op, playerId, false, 0, 0, null, null, null, null);
+        }
+
+        private Entry(UUID playerId, boolean victim, long tagTime, long expireTime, UUID victimId, String victimName,
+                      UUID attackerId, String attackerName) {
+            this(TAG, playerId, victim, tagTime, expireTime, victimId, victimName, attackerId, attackerName);
+        }
+
+        private Entry(byte op, UUID playerId, boolean victim, long tagTime, long expireTime, UUID victimId,
+                      String victimName, UUID attackerId, String attackerName) {
+            this.op = op;
+            this.playerId = playerId;
+            this.victim = victim;
+            this.tagTime = tagTime;
+            this.expireTime = expireTime;
+            this.victimId = victimId;
+            this.victimName = victimName;
+            this.attackerId = attackerId;
+            this.attackerName = attackerName;
+        }
+
+        UUID getPlayerId() {
+            return playerId;
+        }
+
+        boolean isVictim() {
+            return victim;
+        }
+
+        long getExpireTime() {
+            return expireTime;
+        }
+
+        Tag toTag() {
+            return new Tag(tagTime, expireTime, victimId, victimName, attackerId, attackerName);
+        }
+
+    }
+
+}
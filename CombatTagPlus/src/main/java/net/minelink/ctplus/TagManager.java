@@ -1,13 +1,17 @@
 package net.minelink.ctplus;
 
+import net.minelink.ctplus.CombatProfile.Bypass;
 import net.minelink.ctplus.compat.api.NpcPlayerHelper;
+import net.minelink.ctplus.event.CombatTagExpireEvent;
 import net.minelink.ctplus.event.PlayerCombatTagEvent;
+import net.minelink.ctplus.util.TimingWheel;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -22,20 +26,71 @@ public final class TagManager {
 
     private final Map<UUID, Tag> tags = new HashMap<>();
 
+    private final TagTable tagTable = new TagTable();
+
+    private final TagJournal journal;
+
+    private final Set<UUID> abandonedNpcs = new HashSet<>();
+
+    private final TimingWheel<UUID> expiries = new TimingWheel<>(System.currentTimeMillis());
+
+    private final TimingWheel.Listener<UUID> expiryListener = new TimingWheel.Listener<UUID>() {
+        @Override
+        public void expired(UUID playerId) {
+            // Ignore stale entries left behind by a re-tag or an early untag
+            Tag tag = tags.get(playerId);
+            if (tag == null || !tag.isExpired()) return;
+
+            tags.remove(playerId);
+            tagTable.remove(playerId);
+            discardPreparedNpc(playerId);
+            Bukkit.getPluginManager().callEvent(new CombatTagExpireEvent(playerId, tag));
+        }
+    };
+
     TagManager(CombatTagPlus plugin) {
         this.plugin = plugin;
+        this.journal = new TagJournal(plugin);
     }
 
-    void purgeExpired() {
-        Iterator<Tag> iterator = tags.values().iterator();
+    void restore() {
+        long currentTime = System.currentTimeMillis();
 
-        // Loop tags
-        while (iterator.hasNext()) {
-            Tag tag = iterator.next();
+        // Pick up the tags that were still running when the plugin was last disabled
+        for (TagJournal.Entry entry : journal.replay()) {
+            if (entry.getExpireTime() <= currentTime) continue;
 
-            // Remove expired tag
-            if (tag.isExpired()) iterator.remove();
+            UUID playerId = entry.getPlayerId();
+            tags.put(playerId, entry.toTag());
+            tagTable.put(playerId, entry.getExpireTime(), entry.isVictim());
+            expiries.schedule(playerId, entry.getExpireTime());
         }
+
+        abandonedNpcs.addAll(journal.getAbandonedNpcs());
+    }
+
+    void shutdown() {
+        journal.shutdown();
+    }
+
+    void npcSpawned(UUID playerId) {
+        journal.npcSpawned(playerId);
+    }
+
+    void npcDespawned(UUID playerId) {
+        journal.npcDespawned(playerId);
+    }
+
+    // True once for a player whose NPC was lost to a crash before it could despawn
+    public boolean takeAbandonedNpc(UUID playerId) {
+        if (!abandonedNpcs.remove(playerId)) return false;
+
+        journal.npcDespawned(playerId);
+        return true;
+    }
+
+    void expireTags() {
+        expiries.advance(System.currentTimeMillis(), expiryListener);
     }
 
     public void tag(Player victim, Player attacker) {
@@ -52,7 +107,7 @@ public final class TagManager {
                 victim = null;
             } else if (helper.isNpc(victim)) {
                 victimId = helper.getIdentity(victim).getId();
-            } else if (!victim.hasPermission("ctplus.bypass.tag")) {
+            } else if (!plugin.getPlayerCache().getProfile(victim).canBypass(Bypass.TAG)) {
                 victimId = victim.getUniqueId();
             } else {
                 victim = null;
@@ -66,7 +121,7 @@ public final class TagManager {
                 attacker = null;
             } else if (helper.isNpc(attacker)) {
                 attackerId = helper.getIdentity(attacker).getId();
-            } else if (!attacker.hasPermission("ctplus.bypass.tag")) {
+            } else if (!plugin.getPlayerCache().getProfile(attacker).canBypass(Bypass.TAG)) {
                 attackerId = attacker.getUniqueId();
             } else {
                 attacker = null;
@@ -91,16 +146,28 @@ public final class TagManager {
         // Add victim to tagged players
         if (victim != null && flags.contains(Flag.TAG_VICTIM)) {
             tags.put(victimId, tag);
+            tagTable.put(victimId, expireTime, true);
+            expiries.schedule(victimId, expireTime);
+            journal.tag(victimId, tag, true);
         }
 
         // Add attacker to tagged players
         if (attacker != null && flags.contains(Flag.TAG_ATTACKER)) {
             tags.put(attackerId, tag);
+            tagTable.put(attackerId, expireTime, false);
+            expiries.schedule(attackerId, expireTime);
+            journal.tag(attackerId, tag, false);
         }
     }
 
     public boolean untag(UUID playerId) {
         Tag tag = tags.remove(playerId);
+        tagTable.remove(playerId);
+        if (tag != null) {
+            journal.untag(playerId);
+            discardPreparedNpc(playerId);
+        }
+
         return tag != null && !tag.isExpired();
     }
 
@@ -120,15 +187,19 @@ public final class TagManager {
         return tag;
     }
 
+    // Everyone holding a tag, including hidden victims and tags that expire later this tick
+    public Set<UUID> getTaggedPlayers() {
+        return Collections.unmodifiableSet(tags.keySet());
+    }
+
     public boolean isTagged(UUID playerId) {
-        Tag tag = tags.get(playerId);
-        boolean tagged = (tag != null && !tag.isExpired());
+        return tagTable.isTagged(playerId, System.currentTimeMillis(), plugin.getSettings().onlyTagAttacker());
+    }
 
-        if (tagged && plugin.getSettings().onlyTagAttacker()) {
-            return !tag.getVictimId().equals(playerId);
+    private void discardPreparedNpc(UUID playerId) {
+        if (plugin.getNpcManager() != null) {
+            plugin.getNpcManager().discardPrepared(playerId);
         }
-
-        return tagged;
     }
 
 }
@@ -0,0 +1,120 @@
+package net.minelink.ctplus;
+
+import java.util.UUID;
+
+/**
+ * Open-addressing table of tag expiry times keyed on the two halves of a player's UUID. Each slot is laid out inline
+ * in a single long array as {most significant bits, least significant bits, expire time, victim flag} so lookups
+ * never box or allocate. A zero expire time marks an empty slot. Like the rest of TagManager's state, the table is
+ * only accessed from the main thread, removals shift entries in place and aren't safe to read concurrently.
+ */
+final class TagTable {
+
+    private static final int STRIDE = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] slots = new long[INITIAL_CAPACITY * STRIDE];
+
+    private int size;
+
+    boolean isTagged(UUID playerId, long currentTime, boolean hideVictims) {
+        long msb = playerId.getMostSignificantBits();
+        long lsb = playerId.getLeastSignificantBits();
+        long[] slots = this.slots;
+        int mask = slots.length / STRIDE - 1;
+
+        for (int i = hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            int base = i * STRIDE;
+            long expireTime = slots[base + 2];
+            if (expireTime == 0) return false;
+
+            if (slots[base] == msb && slots[base + 1] == lsb) {
+                return expireTime > currentTime && (!hideVictims || slots[base + 3] == 0);
+            }
+        }
+    }
+
+    void put(UUID playerId, long expireTime, boolean victim) {
+        // Keep the load factor at or below one half so probe chains stay short
+        if ((size + 1) * 2 > slots.length / STRIDE) {
+            resize(slots.length / STRIDE * 2);
+        }
+
+        if (insert(slots, playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), expireTime, victim ? 1 : 0)) {
+            size++;
+        }
+    }
+
+    void remove(UUID playerId) {
+        long msb = playerId.getMostSignificantBits();
+        long lsb = playerId.getLeastSignificantBits();
+        long[] slots = this.slots;
+        int mask = slots.length / STRIDE - 1;
+
+        int i = hash(msb, lsb) & mask;
+        while (true) {
+            int base = i * STRIDE;
+            if (slots[base + 2] == 0) return;
+            if (slots[base] == msb && slots[base + 1] == lsb) break;
+            i = (i + 1) & mask;
+        }
+
+        // Shift following entries of the probe chain back into the hole
+        int hole = i;
+        for (int j = (hole + 1) & mask; slots[j * STRIDE + 2] != 0; j = (j + 1) & mask) {
+            int home = hash(slots[j * STRIDE], slots[j * STRIDE + 1]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                System.arraycopy(slots, j * STRIDE, slots, hole * STRIDE, STRIDE);
+                hole = j;
+            }
+        }
+
+        slots[hole * STRIDE + 2] = 0;
+        size--;
+    }
+
+    void clear() {
+        slots = new long[INITIAL_CAPACITY * STRIDE];
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] old = slots;
+        long[] resized = new long[capacity * STRIDE];
+
+        for (int base = 0; base < old.length; base += STRIDE) {
+            if (old[base + 2] != 0) {
+                insert(resized, old[base], old[base + 1], old[base + 2], old[base + 3]);
+            }
+        }
+
+        slots = resized;
+    }
+
+    private static boolean insert(long[] slots, long msb, long lsb, long expireTime, long victim) {
+        int mask = slots.length / STRIDE - 1;
+
+        for (int i = hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            int base = i * STRIDE;
+            boolean empty = slots[base + 2] == 0;
+
+            if (empty || (slots[base] == msb && slots[base + 1] == lsb)) {
+                slots[base] = msb;
+                slots[base + 1] = lsb;
+                slots[base + 3] = victim;
+                slots[base + 2] = expireTime;
+                return empty;
+            }
+        }
+    }
+
+    static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+}
@@ -0,0 +1,39 @@
+package net.minelink.ctplus.event;
+
+import net.minelink.ctplus.Tag;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.UUID;
+
+public final class CombatTagExpireEvent extends Event {
+
+    private static final HandlerList handlers = new HandlerList();
+
+    private final UUID playerId;
+
+    private final Tag tag;
+
+    public CombatTagExpireEvent(UUID playerId, Tag tag) {
+        this.playerId = playerId;
+        this.tag = tag;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public Tag getTag() {
+        return tag;
+    }
+
+}
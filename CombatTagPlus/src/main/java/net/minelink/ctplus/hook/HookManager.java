@@ -1,72 +1,286 @@
 package net.minelink.ctplus.hook;
 
-import net.minelink.ctplus.BlockPosition;
 import net.minelink.ctplus.CombatTagPlus;
-import net.minelink.ctplus.util.LruCache;
+import net.minelink.ctplus.util.ConcurrentClockCache;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public final class HookManager {
+public final class HookManager implements Listener {
 
-    private final List<Hook> hooks = new ArrayList<>();
+    // Hooks that publish region changes only need the cache to expire to catch changes they can't observe
+    private static final long PUBLISHED_CACHE_DURATION = 3600000;
 
-    private final LruCache<BlockPosition, PvpBlock> pvpBlocks = new LruCache<>(100000);
+    private static final long CACHE_DURATION = 60000;
+
+    private final List<Hook> hooks = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentMap<String, ConcurrentClockCache<Long, PvpChunk>> pvpChunks = new ConcurrentHashMap<>();
+
+    // Hooks that may change PvP at any height, rebuilt along with the cache
+    private volatile List<Hook> layeredHooks = Collections.emptyList();
 
     private final CombatTagPlus plugin;
 
+    private volatile long cacheDuration = PUBLISHED_CACHE_DURATION;
+
     public HookManager(CombatTagPlus plugin) {
         this.plugin = plugin;
     }
 
     public boolean addHook(Hook hook) {
-        return hooks.add(hook);
+        // Hooks that watch their plugin for region changes do so through events
+        if (hook instanceof Listener) {
+            Bukkit.getPluginManager().registerEvents((Listener) hook, plugin);
+        }
+
+        boolean added = hooks.add(hook);
+        resetCache();
+        return added;
     }
 
     public boolean removeHook(Hook hook) {
-        return hooks.remove(hook);
+        boolean removed = hooks.remove(hook);
+        resetCache();
+        return removed;
     }
 
     public List<Hook> getHooks() {
         return Collections.unmodifiableList(hooks);
     }
 
+    private void resetCache() {
+        // Cached results were resolved by the old set of hooks
+        pvpChunks.clear();
+
+        // Results combine every hook, so they're only kept as long as the least informed hook allows
+        long duration = PUBLISHED_CACHE_DURATION;
+        List<Hook> layered = new ArrayList<>();
+        for (Hook hook : hooks) {
+            if (!hook.isPublishingRegionChanges()) {
+                duration = CACHE_DURATION;
+            }
+
+            if (!hook.isHeightIndependent()) {
+                layered.add(hook);
+            }
+        }
+
+        cacheDuration = duration;
+        layeredHooks = layered;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void invalidate(RegionChangeEvent event) {
+        if (event.getWorld() == null) {
+            pvpChunks.clear();
+            return;
+        }
+
+        ConcurrentClockCache<Long, PvpChunk> chunks = pvpChunks.get(event.getWorld());
+        if (chunks == null) return;
+
+        if (!event.isBounded()) {
+            pvpChunks.remove(event.getWorld());
+            return;
+        }
+
+        for (int x = event.getMinChunkX(); x <= event.getMaxChunkX(); x++) {
+            for (int z = event.getMinChunkZ(); z <= event.getMaxChunkZ(); z++) {
+                chunks.remove(packChunk(x, z));
+            }
+        }
+    }
+
     public boolean isPvpEnabledAt(Location location) {
-        long currentTime = System.currentTimeMillis();
-        BlockPosition position = new BlockPosition(location);
-        PvpBlock pvpBlock;
+        // PvP is always enabled without any region hooks
+        if (hooks.isEmpty()) return true;
+
+        World world = location.getWorld();
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        PvpChunk chunk = getChunk(world, x >> 4, z >> 4);
+
+        int column = (z & 15) << 4 | (x & 15);
+        if (!isEnabled(chunk.enabled, column)) return false;
+
+        List<Hook> layered = layeredHooks;
+        if (layered.isEmpty()) return true;
+
+        // Heights outside the world aren't cached
+        if (y < 0 || y >= chunk.layers.length) return queryHooks(layered, location);
+
+        // The remaining hooks may change at any height, so only the block in question is looked up
+        synchronized (chunk) {
+            if (chunk.layers[y] != null) {
+                return isEnabled(chunk.layers[y], column);
+            }
 
-        synchronized (pvpBlocks) {
-            pvpBlock = pvpBlocks.get(position);
+            int result = chunk.getBlock(column, y);
+            if (result != PvpChunk.UNKNOWN) {
+                return result == PvpChunk.ENABLED;
+            }
+
+            boolean enabled = queryHooks(layered, location);
+            chunk.setBlock(column, y, enabled);
+            return enabled;
+        }
+    }
+
+    /**
+     * Looks up every column of a chunk at the given height, see {@link Hook#getPvpEnabledColumns(World, int, int, int)}
+     * for the layout of the result. Meant for callers that need a whole area at once.
+     */
+    public long[] getPvpEnabledColumns(World world, int chunkX, int chunkZ, int y) {
+        // PvP is always enabled without any region hooks
+        if (hooks.isEmpty()) return new long[] {-1L, -1L, -1L, -1L};
 
-            if (pvpBlock != null && pvpBlock.expiry > currentTime) {
-                return pvpBlock.enabled;
+        PvpChunk chunk = getChunk(world, chunkX, chunkZ);
+
+        List<Hook> layered = layeredHooks;
+        if (layered.isEmpty()) return chunk.enabled.clone();
+
+        long[] columns = chunk.enabled.clone();
+        if (y < 0 || y >= chunk.layers.length) {
+            queryHooks(layered, world, chunkX, chunkZ, y, columns);
+            return columns;
+        }
+
+        // The remaining hooks are asked for the whole layer in one go
+        synchronized (chunk) {
+            if (chunk.layers[y] == null) {
+                queryHooks(layered, world, chunkX, chunkZ, y, columns);
+                chunk.layers[y] = columns;
             }
 
-            pvpBlock = new PvpBlock(currentTime + 60000);
-            pvpBlocks.put(position, pvpBlock);
+            return chunk.layers[y].clone();
         }
+    }
 
+    private PvpChunk getChunk(World world, int chunkX, int chunkZ) {
+        long currentTime = System.currentTimeMillis();
+        long key = packChunk(chunkX, chunkZ);
+        ConcurrentClockCache<Long, PvpChunk> chunks = getChunks(world);
+        PvpChunk chunk = chunks.get(key);
+
+        // Hooks that protect whole columns answer for the entire chunk with a single lookup
+        if (chunk == null || chunk.expiry <= currentTime) {
+            chunk = loadChunk(world, chunkX, chunkZ, currentTime + cacheDuration);
+            chunks.put(key, chunk);
+        }
+
+        return chunk;
+    }
+
+    private ConcurrentClockCache<Long, PvpChunk> getChunks(World world) {
+        ConcurrentClockCache<Long, PvpChunk> chunks = pvpChunks.get(world.getName());
+        if (chunks != null) return chunks;
+
+        chunks = new ConcurrentClockCache<>(4096);
+        ConcurrentClockCache<Long, PvpChunk> existing = pvpChunks.putIfAbsent(world.getName(), chunks);
+        return existing != null ? existing : chunks;
+    }
+
+    private PvpChunk loadChunk(World world, int chunkX, int chunkZ, long expiry) {
+        PvpChunk chunk = new PvpChunk(expiry, world.getMaxHeight());
+
+        Arrays.fill(chunk.enabled, -1L);
+        for (Hook hook : hooks) {
+            if (hook.isHeightIndependent()) {
+                and(chunk.enabled, hook.getPvpEnabledColumns(world, chunkX, chunkZ, 0));
+            }
+        }
+
+        return chunk;
+    }
+
+    private static boolean queryHooks(List<Hook> hooks, Location location) {
         for (Hook hook : hooks) {
             if (!hook.isPvpEnabledAt(location)) {
-                pvpBlock.enabled = false;
-                break;
+                return false;
             }
         }
 
-        return pvpBlock.enabled;
+        return true;
+    }
+
+    private static void queryHooks(List<Hook> hooks, World world, int chunkX, int chunkZ, int y, long[] columns) {
+        for (Hook hook : hooks) {
+            // No need to ask the remaining hooks once PvP is disabled everywhere
+            if (isEmpty(columns)) return;
+
+            and(columns, hook.getPvpEnabledColumns(world, chunkX, chunkZ, y));
+        }
+    }
+
+    private static void and(long[] columns, long[] enabled) {
+        for (int i = 0; i < 4; i++) {
+            columns[i] &= enabled[i];
+        }
+    }
+
+    private static boolean isEmpty(long[] columns) {
+        return (columns[0] | columns[1] | columns[2] | columns[3]) == 0;
+    }
+
+    private static boolean isEnabled(long[] columns, int column) {
+        return (columns[column >> 6] & 1L << column) != 0;
+    }
+
+    private static long packChunk(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
     }
 
-    private static class PvpBlock {
+    private static class PvpChunk {
+
+        private static final int UNKNOWN = 0, ENABLED = 1, DISABLED = 2;
 
         private final long expiry;
 
-        private boolean enabled = true;
+        // Columns left enabled by the height independent hooks
+        private final long[] enabled = new long[4];
+
+        // Whole layers looked up in bulk, indexed by height
+        private final long[][] layers;
+
+        // Two bits per block looked up on its own, allocated per chunk section as blocks are asked for
+        private final long[][] blocks;
 
-        PvpBlock(long expiry) {
+        PvpChunk(long expiry, int maxHeight) {
             this.expiry = expiry;
+            this.layers = new long[maxHeight][];
+            this.blocks = new long[(maxHeight + 15) >> 4][];
+        }
+
+        int getBlock(int column, int y) {
+            long[] section = blocks[y >> 4];
+            if (section == null) return UNKNOWN;
+
+            int index = (y & 15) << 8 | column;
+            return (int) (section[index >> 5] >>> ((index & 31) << 1)) & 3;
+        }
+
+        void setBlock(int column, int y, boolean enabled) {
+            long[] section = blocks[y >> 4];
+            if (section == null) {
+                section = new long[128];
+                blocks[y >> 4] = section;
+            }
+
+            int index = (y & 15) << 8 | column;
+            section[index >> 5] |= (long) (enabled ? ENABLED : DISABLED) << ((index & 31) << 1);
         }
 
     }
@@ -1,14 +1,25 @@
 package net.minelink.ctplus.hook;
 
+import com.palmergames.bukkit.towny.event.TownBlockSettingsChangedEvent;
+import com.palmergames.bukkit.towny.event.TownClaimEvent;
+import com.palmergames.bukkit.towny.event.TownUnclaimEvent;
 import com.palmergames.bukkit.towny.exceptions.NotRegisteredException;
 import com.palmergames.bukkit.towny.object.Coord;
 import com.palmergames.bukkit.towny.object.TownBlock;
 import com.palmergames.bukkit.towny.object.TownyUniverse;
 import com.palmergames.bukkit.towny.object.TownyWorld;
+import com.palmergames.bukkit.towny.object.WorldCoord;
 import com.palmergames.bukkit.towny.utils.CombatUtil;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
 
-public final class TownyHook implements Hook {
+import java.util.Arrays;
+
+public final class TownyHook implements Hook, Listener {
 
     @Override
     public boolean isPvpEnabledAt(Location loc) {
@@ -19,9 +30,85 @@ public final class TownyHook implements Hook {
             return true;
         }
 
+        return isPvpEnabledAt(world, Coord.parseCoord(loc));
+    }
+
+    @Override
+    public long[] getPvpEnabledColumns(World world, int chunkX, int chunkZ, int y) {
+        long[] columns = new long[4];
+
+        TownyWorld townyWorld;
+        try {
+            townyWorld = TownyUniverse.getDataSource().getWorld(world.getName());
+        } catch (NotRegisteredException ignore) {
+            Arrays.fill(columns, -1L);
+            return columns;
+        }
+
+        // Only look up a town block when the column crosses into a new cell, with the default cell size that
+        // means once for the whole chunk
+        Coord coord = null;
+        boolean enabled = false;
+        for (int column = 0; column < 256; column++) {
+            Coord next = Coord.parseCoord((chunkX << 4) + (column & 15), (chunkZ << 4) + (column >> 4));
+            if (!next.equals(coord)) {
+                coord = next;
+                enabled = isPvpEnabledAt(townyWorld, coord);
+            }
+
+            if (enabled) {
+                columns[column >> 6] |= 1L << column;
+            }
+        }
+
+        return columns;
+    }
+
+    @Override
+    public boolean isHeightIndependent() {
+        // Town blocks cover the full height of the world
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onClaim(TownClaimEvent event) {
+        // Not every change is published, town deletion for one isn't, so this only drops stale answers early
+        TownBlock townBlock = event.getTownBlock();
+        publish(townBlock.getWorld().getName(), townBlock.getX(), townBlock.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onUnclaim(TownUnclaimEvent event) {
+        WorldCoord coord = event.getWorldCoord();
+        publish(coord.getWorldName(), coord.getX(), coord.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onSettingsChange(TownBlockSettingsChangedEvent event) {
+        if (event.getTownBlock() != null) {
+            TownBlock townBlock = event.getTownBlock();
+            publish(townBlock.getWorld().getName(), townBlock.getX(), townBlock.getZ());
+        } else if (event.getTownyWorld() != null) {
+            Bukkit.getPluginManager().callEvent(new RegionChangeEvent(event.getTownyWorld().getName()));
+        } else {
+            // Town wide settings apply wherever the town has claimed land
+            Bukkit.getPluginManager().callEvent(new RegionChangeEvent(null));
+        }
+    }
+
+    private void publish(String world, int cellX, int cellZ) {
+        int cellSize = Coord.getCellSize();
+        int minX = cellX * cellSize;
+        int minZ = cellZ * cellSize;
+
+        Bukkit.getPluginManager().callEvent(new RegionChangeEvent(world, minX >> 4, minZ >> 4,
+                (minX + cellSize - 1) >> 4, (minZ + cellSize - 1) >> 4));
+    }
+
+    private boolean isPvpEnabledAt(TownyWorld world, Coord coord) {
         TownBlock townBlock = null;
         try {
-            townBlock = world.getTownBlock(Coord.parseCoord(loc));
+            townBlock = world.getTownBlock(coord);
         } catch (NotRegisteredException ignore) {
 
         }
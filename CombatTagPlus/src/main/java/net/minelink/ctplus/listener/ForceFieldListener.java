@@ -1,12 +1,17 @@
 package net.minelink.ctplus.listener;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minelink.ctplus.BlockPosition;
 import net.minelink.ctplus.CombatTagPlus;
+import net.minelink.ctplus.compat.api.BlockChangeBatch;
+import net.minelink.ctplus.compat.api.BlockChangeHelper;
+import net.minelink.ctplus.util.LongHashSet;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -16,28 +21,45 @@ import org.bukkit.event.server.PluginDisableEvent;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-
-import static org.bukkit.block.BlockFace.*;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 public final class ForceFieldListener implements Listener {
 
-    private static final List<BlockFace> ALL_DIRECTIONS = ImmutableList.of(NORTH, EAST, SOUTH, WEST);
+    private static final int LANES = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     private final CombatTagPlus plugin;
 
-    private final Map<UUID, Set<Location>> previousUpdates = new HashMap<>();
+    private final Lane[] lanes = new Lane[LANES];
+
+    private final ConcurrentMap<UUID, Job> pendingJobs = new ConcurrentHashMap<>();
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("CombatTagPlus ForceField Thread").build());
+    // Chunk copies taken during the current tick, only accessed from the main thread
+    private final Map<World, Map<Long, ChunkSnapshot>> tickChunks = new HashMap<>();
+
+    private final Runnable clearTickChunks = new Runnable() {
+        @Override
+        public void run() {
+            tickChunks.clear();
+        }
+    };
 
     public ForceFieldListener(CombatTagPlus plugin) {
         this.plugin = plugin;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CombatTagPlus ForceField Thread %d").build();
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(Executors.newSingleThreadExecutor(threadFactory));
+        }
     }
 
     @EventHandler
@@ -45,22 +67,38 @@ public final class ForceFieldListener implements Listener {
         // Do nothing if plugin being disabled isn't CombatTagPlus
         if (event.getPlugin() != plugin) return;
 
-        // Shutdown executor service and clean up threads
-        executorService.shutdown();
+        // Shutdown executor services and clean up threads
+        for (Lane lane : lanes) {
+            lane.executorService.shutdown();
+        }
+
         try {
-            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Lane lane : lanes) {
+                lane.executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
         } catch (InterruptedException ignore) {}
 
-        // Go through all previous updates and revert spoofed blocks
-        for (UUID uuid : previousUpdates.keySet()) {
-            Player player = plugin.getPlayerCache().getPlayer(uuid);
-            if (player == null) continue;
+        // Go through all force fields and revert spoofed blocks, the live world is safe to read from here
+        for (Lane lane : lanes) {
+            for (Map.Entry<UUID, ForceField> entry : lane.forceFields.entrySet()) {
+                Player player = plugin.getPlayerCache().getPlayer(entry.getKey());
+                ForceField forceField = entry.getValue();
+                if (player == null || forceField.world != player.getWorld()) continue;
+
+                BlockChangeBatch revert = new BlockChangeBatch();
+                for (long position : forceField.spoofed.toArray()) {
+                    Block block = forceField.world.getBlockAt(BlockPosition.unpackX(position),
+                            BlockPosition.unpackY(position), BlockPosition.unpackZ(position));
+                    revert.add(block.getX(), block.getY(), block.getZ(), block.getType(), block.getData());
+                }
 
-            for (Location location : previousUpdates.get(uuid)) {
-                Block block = location.getBlock();
-                player.sendBlockChange(location, block.getType(), block.getData());
+                sendBlockChanges(player, revert);
             }
+
+            lane.forceFields.clear();
         }
+
+        pendingJobs.clear();
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -77,99 +115,367 @@ public final class ForceFieldListener implements Listener {
         }
 
         final Player player = event.getPlayer();
+        final UUID uuid = player.getUniqueId();
 
-        // Asynchronously send block changes around player
-        executorService.submit(new Runnable() {
+        // Capture everything the force field depends on while still on the main thread
+        Snapshot snapshot = plugin.getTagManager().isTagged(uuid) ? takeSnapshot(t) : null;
+
+        // Replace any job the worker hasn't picked up yet, only schedule a run if none was waiting
+        if (pendingJobs.put(uuid, new Job(player, t.getWorld(), snapshot)) != null) return;
+
+        // A player is always handled by the same lane, so its force field is only ever touched by one thread
+        final Lane lane = lanes[(uuid.hashCode() & Integer.MAX_VALUE) % lanes.length];
+        lane.executorService.submit(new Runnable() {
             @Override
             public void run() {
+                Job job = pendingJobs.remove(uuid);
+                if (job == null) return;
+
                 // Stop processing if player has logged off
-                UUID uuid = player.getUniqueId();
                 if (!plugin.getPlayerCache().isOnline(uuid)) {
-                    previousUpdates.remove(uuid);
+                    lane.forceFields.remove(uuid);
                     return;
                 }
 
-                // Update the players force field perspective and find all blocks to stop spoofing
-                Set<Location> changedBlocks = getChangedBlocks(player);
-                Material forceFieldMaterial = Material.getMaterial(plugin.getSettings().getForceFieldMaterial());
-                byte forceFieldMaterialDamage = plugin.getSettings().getForceFieldMaterialDamage();
+                ForceField forceField = lane.forceFields.get(uuid);
+                BlockChangeBatch spoof = new BlockChangeBatch();
+                BlockChangeBatch revert = new BlockChangeBatch();
+
+                if (job.snapshot != null) {
+                    if (forceField == null) {
+                        forceField = new ForceField();
+                        lane.forceFields.put(uuid, forceField);
+                    }
+
+                    updateForceField(forceField, job.snapshot, spoof, revert);
+                } else if (forceField != null) {
+                    // Stop spoofing everything once the player is no longer tagged
+                    clearForceField(forceField, job.world, revert);
+                    lane.forceFields.remove(uuid);
+                }
+
+                sendBlockChanges(job.player, spoof);
+                sendBlockChanges(job.player, revert);
+            }
+        });
+    }
+
+    private Snapshot takeSnapshot(Location l) {
+        World world = l.getWorld();
+        int r = plugin.getSettings().getForceFieldRadius();
+        Snapshot snapshot = new Snapshot(world, l.getBlockX(), l.getBlockY(), l.getBlockZ(), r);
+
+        // Region plugins may only be asked from the main thread, so the boundary is settled before handing off
+        findBoundary(snapshot);
 
-                Set<Location> removeBlocks;
-                if (previousUpdates.containsKey(uuid)) {
-                    removeBlocks = previousUpdates.get(uuid);
-                } else {
-                    removeBlocks = new HashSet<>();
+        // Only chunks holding boundary columns are copied, none at all when the player is nowhere near a safe zone
+        for (int x = snapshot.minX; x <= snapshot.maxX; x++) {
+            for (int z = snapshot.minZ; z <= snapshot.maxZ; z++) {
+                if (!snapshot.isBoundary(x, z)) continue;
+
+                long key = chunkKey(x >> 4, z >> 4);
+                if (snapshot.chunks.containsKey(key)) continue;
+
+                // Skip chunks the client can't see anyway
+                ChunkSnapshot chunk = getChunkSnapshot(world, x >> 4, z >> 4);
+                if (chunk != null) {
+                    snapshot.chunks.put(key, chunk);
                 }
+            }
+        }
+
+        return snapshot;
+    }
+
+    private ChunkSnapshot getChunkSnapshot(World world, int chunkX, int chunkZ) {
+        // Players moving within the same tick share their copies of a chunk
+        Map<Long, ChunkSnapshot> chunks = tickChunks.get(world);
+        if (chunks == null) {
+            if (tickChunks.isEmpty()) {
+                Bukkit.getScheduler().runTask(plugin, clearTickChunks);
+            }
+
+            chunks = new HashMap<>();
+            tickChunks.put(world, chunks);
+        }
+
+        long key = chunkKey(chunkX, chunkZ);
+        ChunkSnapshot chunk = chunks.get(key);
+        if (chunk == null && world.isChunkLoaded(chunkX, chunkZ)) {
+            chunk = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+            chunks.put(key, chunk);
+        }
+
+        return chunk;
+    }
 
-                for (Location location : changedBlocks) {
-                    player.sendBlockChange(location, forceFieldMaterial, forceFieldMaterialDamage);
-                    removeBlocks.remove(location);
+    private void findBoundary(Snapshot snapshot) {
+        int r = snapshot.radius;
+
+        // Look up PvP for the window and the ring of columns around it
+        int size = 2 * r + 3;
+        boolean[] pvp = new boolean[size * size];
+        int minX = snapshot.minX - 1;
+        int minZ = snapshot.minZ - 1;
+        int maxX = minX + size - 1;
+        int maxZ = minZ + size - 1;
+
+        // Ask for every chunk the area overlaps at once rather than column by column
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                long[] columns = plugin.getHookManager().getPvpEnabledColumns(snapshot.world, chunkX, chunkZ, snapshot.minY + r);
+                for (int x = Math.max(minX, chunkX << 4); x <= Math.min(maxX, (chunkX << 4) + 15); x++) {
+                    for (int z = Math.max(minZ, chunkZ << 4); z <= Math.min(maxZ, (chunkZ << 4) + 15); z++) {
+                        int column = (z & 15) << 4 | (x & 15);
+                        pvp[(x - minX) * size + (z - minZ)] = (columns[column >> 6] & 1L << column) != 0;
+                    }
                 }
+            }
+        }
+
+        for (int i = 1; i < size - 1; i++) {
+            for (int j = 1; j < size - 1; j++) {
+                // PvP is enabled here, no need to do anything else
+                if (pvp[i * size + j]) continue;
 
-                // Remove no longer used spoofed blocks
-                for (Location location : removeBlocks) {
-                    Block block = location.getBlock();
-                    player.sendBlockChange(location, block.getType(), block.getData());
+                // Check if PvP is enabled in a column surrounding this
+                if (!pvp[(i - 1) * size + j] && !pvp[(i + 1) * size + j] &&
+                        !pvp[i * size + j - 1] && !pvp[i * size + j + 1]) {
+                    continue;
                 }
 
-                previousUpdates.put(uuid, changedBlocks);
+                snapshot.setBoundary(snapshot.minX - 1 + i, snapshot.minZ - 1 + j);
             }
-        });
+        }
     }
 
-    private Set<Location> getChangedBlocks(Player player) {
-        Set<Location> locations = new HashSet<>();
+    private void updateForceField(final ForceField forceField, final Snapshot snapshot, BlockChangeBatch spoof, final BlockChangeBatch revert) {
+        // The client already dropped spoofed blocks of the world the player left
+        if (forceField.world != snapshot.world || forceField.radius != snapshot.radius) {
+            forceField.reset();
+        }
 
-        // Do nothing if player is not tagged
-        if (!plugin.getTagManager().isTagged(player.getUniqueId())) return locations;
+        // Keep the freshest copy of every chunk spoofed blocks may have to be reverted from
+        forceField.chunks.putAll(snapshot.chunks);
 
-        // Find the radius around the player
-        int r = plugin.getSettings().getForceFieldRadius();
-        Location l = player.getLocation();
-        Location loc1 = l.clone().add(r, 0, r);
-        Location loc2 = l.clone().subtract(r, 0, r);
-        int topBlockX = loc1.getBlockX() < loc2.getBlockX() ? loc2.getBlockX() : loc1.getBlockX();
-        int bottomBlockX = loc1.getBlockX() > loc2.getBlockX() ? loc2.getBlockX() : loc1.getBlockX();
-        int topBlockZ = loc1.getBlockZ() < loc2.getBlockZ() ? loc2.getBlockZ() : loc1.getBlockZ();
-        int bottomBlockZ = loc1.getBlockZ() > loc2.getBlockZ() ? loc2.getBlockZ() : loc1.getBlockZ();
-
-        // Iterate through all blocks surrounding the player
-        for (int x = bottomBlockX; x <= topBlockX; x++) {
-            for (int z = bottomBlockZ; z <= topBlockZ; z++) {
-                // Location corresponding to current loop
-                Location location = new Location(l.getWorld(), x, l.getY(), z);
+        // Stop spoofing blocks that fell out of the window or whose column is no longer on the boundary, reverts of
+        // chunks that weren't copied this time fall back to the copy kept from when the block was spoofed
+        forceField.spoofed.removeIf(new LongPredicate() {
+            @Override
+            public boolean test(long position) {
+                int x = BlockPosition.unpackX(position);
+                int y = BlockPosition.unpackY(position);
+                int z = BlockPosition.unpackZ(position);
+                if (snapshot.contains(x, y, z) && snapshot.isBoundary(x, z)) return false;
 
-                // PvP is enabled here, no need to do anything else
-                if (plugin.getHookManager().isPvpEnabledAt(location)) continue;
+                addRealBlock(forceField, revert, x, y, z);
+                return true;
+            }
+        });
 
-                // Check if PvP is enabled in a location surrounding this
-                if (!isPvpSurrounding(location)) continue;
+        Material forceFieldMaterial = Material.getMaterial(plugin.getSettings().getForceFieldMaterial());
+        byte forceFieldMaterialDamage = plugin.getSettings().getForceFieldMaterialDamage();
 
-                for (int i = -r; i < r; i++) {
-                    Location loc = new Location(location.getWorld(), location.getX(), location.getY(), location.getZ());
+        // Only blocks that just entered the window or the boundary need to be checked
+        for (int x = snapshot.minX; x <= snapshot.maxX; x++) {
+            for (int z = snapshot.minZ; z <= snapshot.maxZ; z++) {
+                boolean known = forceField.containsColumn(x, z) && forceField.isBoundary(x, z);
+                if (known && forceField.minY == snapshot.minY) continue;
+                if (!snapshot.isBoundary(x, z)) continue;
 
-                    loc.setY(loc.getY() + i);
+                for (int y = snapshot.minY; y <= snapshot.maxY; y++) {
+                    if (known && y >= forceField.minY && y <= forceField.maxY) continue;
 
                     // Do nothing if the block at the location is not air
-                    if (!loc.getBlock().getType().equals(Material.AIR)) continue;
+                    if (!snapshot.isAir(plugin.getBlockChangeHelper(), x, y, z)) continue;
 
-                    // Add this location to locations
-                    locations.add(new Location(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
+                    if (forceField.spoofed.add(BlockPosition.pack(x, y, z))) {
+                        spoof.add(x, y, z, forceFieldMaterial, forceFieldMaterialDamage);
+                    }
                 }
             }
         }
 
-        return locations;
+        // Only keep chunks that still hold spoofed blocks
+        if (forceField.spoofed.isEmpty()) {
+            forceField.chunks.clear();
+        } else {
+            final Set<Long> spoofedChunks = new HashSet<>();
+            forceField.spoofed.forEach(new LongConsumer() {
+                @Override
+                public void accept(long position) {
+                    spoofedChunks.add(chunkKey(BlockPosition.unpackX(position) >> 4, BlockPosition.unpackZ(position) >> 4));
+                }
+            });
+
+            forceField.chunks.keySet().retainAll(spoofedChunks);
+        }
+
+        forceField.world = snapshot.world;
+        forceField.radius = snapshot.radius;
+        forceField.boundary = snapshot.boundary;
+        forceField.minX = snapshot.minX;
+        forceField.maxX = snapshot.maxX;
+        forceField.minY = snapshot.minY;
+        forceField.maxY = snapshot.maxY;
+        forceField.minZ = snapshot.minZ;
+        forceField.maxZ = snapshot.maxZ;
     }
 
-    private boolean isPvpSurrounding(Location loc) {
-        for (BlockFace direction : ALL_DIRECTIONS) {
-            if (plugin.getHookManager().isPvpEnabledAt(loc.getBlock().getRelative(direction).getLocation())) {
-                return true;
-            }
+    private void clearForceField(final ForceField forceField, World world, final BlockChangeBatch revert) {
+        // Spoofed blocks of another world are already gone client side
+        if (forceField.world == world) {
+            forceField.spoofed.removeIf(new LongPredicate() {
+                @Override
+                public boolean test(long position) {
+                    addRealBlock(forceField, revert, BlockPosition.unpackX(position),
+                            BlockPosition.unpackY(position), BlockPosition.unpackZ(position));
+                    return true;
+                }
+            });
+        }
+
+        forceField.reset();
+    }
+
+    private void addRealBlock(ForceField forceField, BlockChangeBatch batch, int x, int y, int z) {
+        ChunkSnapshot chunk = forceField.chunks.get(chunkKey(x >> 4, z >> 4));
+
+        // Spoofed blocks were air when they were captured
+        if (chunk == null) {
+            batch.add(x, y, z, Material.AIR, (byte) 0);
+            return;
+        }
+
+        plugin.getBlockChangeHelper().addBlock(batch, chunk, x, y, z);
+    }
+
+    private void sendBlockChanges(Player player, BlockChangeBatch batch) {
+        if (!batch.isEmpty()) {
+            plugin.getBlockChangeHelper().sendBlockChanges(player, batch);
+        }
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+
+    private static final class Lane {
+
+        private final ExecutorService executorService;
+
+        // Only accessed from the lane's own thread
+        private final Map<UUID, ForceField> forceFields = new HashMap<>();
+
+        Lane(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+    }
+
+    private static final class Job {
+
+        private final Player player;
+
+        private final World world;
+
+        private final Snapshot snapshot;
+
+        Job(Player player, World world, Snapshot snapshot) {
+            this.player = player;
+            this.world = world;
+            this.snapshot = snapshot;
+        }
+
+    }
+
+    /**
+     * View of a player's surroundings taken on the main thread. Boundary columns are resolved against the region
+     * hooks and block types are copied into chunk snapshots up front, so the worker only ever reads these arrays.
+     */
+    private static final class Snapshot {
+
+        private final World world;
+
+        private final int radius;
+
+        private final int minX, maxX, minY, maxY, minZ, maxZ;
+
+        private final long[] boundary;
+
+        private final Map<Long, ChunkSnapshot> chunks = new HashMap<>();
+
+        Snapshot(World world, int blockX, int blockY, int blockZ, int radius) {
+            this.world = world;
+            this.radius = radius;
+            this.minX = blockX - radius;
+            this.maxX = blockX + radius;
+            this.minY = blockY - radius;
+            this.maxY = blockY + radius - 1;
+            this.minZ = blockZ - radius;
+            this.maxZ = blockZ + radius;
+
+            int size = 2 * radius + 1;
+            this.boundary = new long[(size * size + 63) >> 6];
+        }
+
+        boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        boolean isBoundary(int x, int z) {
+            int column = (x - minX) * (maxZ - minZ + 1) + (z - minZ);
+            return (boundary[column >> 6] & 1L << column) != 0;
+        }
+
+        void setBoundary(int x, int z) {
+            int column = (x - minX) * (maxZ - minZ + 1) + (z - minZ);
+            boundary[column >> 6] |= 1L << column;
+        }
+
+        boolean isAir(BlockChangeHelper helper, int x, int y, int z) {
+            if (y < 0 || y > 255) return false;
+
+            ChunkSnapshot chunk = chunks.get(chunkKey(x >> 4, z >> 4));
+            if (chunk == null) return false;
+
+            return helper.isAir(chunk, x, y, z);
+        }
+
+    }
+
+    private static final class ForceField {
+
+        private final LongHashSet spoofed = new LongHashSet();
+
+        private final Map<Long, ChunkSnapshot> chunks = new HashMap<>();
+
+        private World world;
+
+        private int radius = -1;
+
+        private int minX, maxX, minY, maxY, minZ, maxZ;
+
+        // Boundary columns of the snapshot the force field was last built from
+        private long[] boundary;
+
+        boolean containsColumn(int x, int z) {
+            return world != null && x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+        }
+
+        boolean isBoundary(int x, int z) {
+            int column = (x - minX) * (maxZ - minZ + 1) + (z - minZ);
+            return (boundary[column >> 6] & 1L << column) != 0;
+        }
+
+        void reset() {
+            spoofed.clear();
+            chunks.clear();
+            world = null;
+            radius = -1;
+            boundary = null;
         }
 
-        return false;
     }
 
 }
@@ -5,6 +5,7 @@ import net.minelink.ctplus.Npc;
 import net.minelink.ctplus.event.CombatLogEvent;
 import net.minelink.ctplus.event.NpcDespawnEvent;
 import net.minelink.ctplus.event.NpcDespawnReason;
+import net.minelink.ctplus.event.PlayerCombatTagEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -14,13 +15,9 @@ import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.potion.PotionEffect;
-import org.bukkit.potion.PotionEffectType;
+import org.bukkit.event.player.PlayerLoginEvent;
 
 import java.util.UUID;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 public final class NpcListener implements Listener {
 
@@ -42,6 +39,22 @@ public final class NpcListener implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void prepareNpc(PlayerCombatTagEvent event) {
+        // Do nothing if combat logging won't spawn a NPC
+        if (plugin.getSettings().instantlyKill() || !plugin.getSettings().spawnNPC()) return;
+
+        // Copy what the NPCs need now rather than in the middle of a wave of logouts
+        prepareNpc(event.getVictim());
+        prepareNpc(event.getAttacker());
+    }
+
+    private void prepareNpc(Player player) {
+        if (player != null && !plugin.getNpcPlayerHelper().isNpc(player)) {
+            plugin.getNpcManager().prepare(player);
+        }
+    }
+
     @EventHandler
     public void despawnNpc(PlayerJoinEvent event) {
         // Attempt to despawn NPC
@@ -117,7 +130,7 @@ public final class NpcListener implements Listener {
         Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
             @Override
             public void run() {
-                plugin.getNpcPlayerHelper().syncOffline(player);
+                plugin.getPlayerDataWriter().sync(player);
             }
         });
     }
@@ -127,74 +140,22 @@ public final class NpcListener implements Listener {
         // Do nothing if login is already disallowed
         if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
 
-        // Do nothing if there is no spawned NPC for this player
-        final UUID playerId = event.getUniqueId();
-        if (!plugin.getNpcManager().npcExists(playerId)) return;
+        // Wait for any pending NPC player data save to hit the disk
+        plugin.getPlayerDataWriter().await(event.getUniqueId());
+    }
 
-        // Synchronously save the NPC's player data
-        Future<?> future = Bukkit.getScheduler().callSyncMethod(plugin, new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                Npc npc = plugin.getNpcManager().getSpawnedNpc(playerId);
-                if (npc == null) return null;
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void syncOffline(PlayerLoginEvent event) {
+        // Do nothing if login is disallowed
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) return;
 
-                plugin.getNpcPlayerHelper().syncOffline(npc.getEntity());
-                return null;
-            }
-        });
-
-        // Wait for the save to complete
-        // TODO: There must be a better way of doing this?
-        try {
-            future.get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+        // An NPC may have despawned or died after the pre-login wait, the player data is loaded right after this
+        plugin.getPlayerDataWriter().await(event.getPlayer().getUniqueId());
     }
 
     @EventHandler
     public void syncOffline(NpcDespawnEvent event) {
-        Npc npc = event.getNpc();
-
-        // Save player data when the NPC despawns
-        Player player = plugin.getPlayerCache().getPlayer(npc.getIdentity().getId());
-        if (player == null) {
-            plugin.getNpcPlayerHelper().syncOffline(npc.getEntity());
-            return;
-        }
-
-        // Copy NPC player data to online player
-        Player npcPlayer = npc.getEntity();
-        player.setMaximumAir(npcPlayer.getMaximumAir());
-        player.setRemainingAir(npcPlayer.getRemainingAir());
-        player.setHealthScale(npcPlayer.getHealthScale());
-        player.setMaxHealth(getRealMaxHealth(npcPlayer));
-        player.setHealth(npcPlayer.getHealth());
-        player.setTotalExperience(npcPlayer.getTotalExperience());
-        player.setFoodLevel(npcPlayer.getFoodLevel());
-        player.setExhaustion(npcPlayer.getExhaustion());
-        player.setSaturation(npcPlayer.getSaturation());
-        player.setFireTicks(npcPlayer.getFireTicks());
-        player.getInventory().setContents(npcPlayer.getInventory().getContents());
-        player.getInventory().setArmorContents(npcPlayer.getInventory().getArmorContents());
-        player.addPotionEffects(npcPlayer.getActivePotionEffects());
+        plugin.getNpcManager().saveState(event.getNpc());
     }
 
-    /*
-     * This is to prevent players with the health boost potion effect getting increased max-health.
-     * Player.getMaxHealth() returns the player's health including temporary boosts from potions.
-     * If we apply this to the new player with Player.setMaxHealth(), the previously temporary boost becomes permanent.
-     * Players can abuse this glitch repeatedly to get infinite amounts of max-health.
-     * To fix this, we simply remove any health boosts granted by potions.
-     */
-    @SuppressWarnings("deprecation")
-    private static double getRealMaxHealth(Player npcPlayer) {
-        double health = npcPlayer.getMaxHealth();
-        for (PotionEffect p : npcPlayer.getActivePotionEffects()) {
-            if (p.getType().equals(PotionEffectType.HEALTH_BOOST)) {
-                health -= (p.getAmplifier() + 1) * 4;
-            }
-        }
-        return health;
-    }
 }
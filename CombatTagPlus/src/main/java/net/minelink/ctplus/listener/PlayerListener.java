@@ -3,12 +3,15 @@ package net.minelink.ctplus.listener;
 import java.util.UUID;
 import javax.annotation.Nullable;
 
+import net.minelink.ctplus.CombatProfile.Bypass;
 import net.minelink.ctplus.CombatTagPlus;
 import net.minelink.ctplus.Tag;
 import net.minelink.ctplus.event.CombatLogEvent;
 import net.minelink.ctplus.event.PlayerCombatTagEvent;
 import net.minelink.ctplus.task.SafeLogoutTask;
 import net.minelink.ctplus.task.TagUpdateTask;
+import net.minelink.ctplus.util.BarUtils;
+import net.minelink.ctplus.util.MessageTemplate;
 
 import org.apache.commons.lang.WordUtils;
 import org.bukkit.Bukkit;
@@ -23,6 +26,7 @@ import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.inventory.CraftItemEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
@@ -45,12 +49,23 @@ public final class PlayerListener implements Listener {
         Player player = event.getPlayer();
 
         // Send a Player List of all the NPCs for client visibility reasons
-        plugin.getNpcPlayerHelper().createPlayerList(player);
+        if (plugin.getNpcManager() != null) {
+            plugin.getNpcManager().createPlayerList(player);
+        }
 
         // Add player to cache
         plugin.getPlayerCache().addPlayer(player);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void punishAbandonedNpc(PlayerJoinEvent event) {
+        // The player's NPC was lost to a crash before it could despawn, so the logout may be treated as an instakill
+        Player player = event.getPlayer();
+        if (plugin.getTagManager().takeAbandonedNpc(player.getUniqueId()) && plugin.getSettings().killOnLostNpc()) {
+            player.setHealth(0);
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onLogout(PlayerQuitEvent event) {
         // Do nothing if player is not combat tagged and NPCs only spawn if tagged
@@ -69,7 +84,7 @@ public final class PlayerListener implements Listener {
         if (!plugin.getHookManager().isPvpEnabledAt(player.getLocation())) return;
 
         // Do nothing if player has permission
-        if (player.hasPermission("ctplus.bypass.tag")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.TAG)) return;
 
         // Do nothing if player has safely logged out
         if (SafeLogoutTask.isFinished(player)) return;
@@ -87,12 +102,25 @@ public final class PlayerListener implements Listener {
         Player player = event.getPlayer();
 
         // Remove all NPCs from the Player List for player
-        plugin.getNpcPlayerHelper().removePlayerList(player);
+        if (plugin.getNpcManager() != null) {
+            plugin.getNpcManager().removePlayerList(player);
+        }
+
+        // Forget any bar shown to the player
+        if (plugin.getSettings().useBarApi()) {
+            BarUtils.removeBar(player);
+        }
 
         // Remove player from cache
         plugin.getPlayerCache().removePlayer(player);
     }
 
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void refreshProfile(PlayerChangedWorldEvent event) {
+        // Permission plugins commonly grant permissions per world
+        plugin.getPlayerCache().refreshProfile(event.getPlayer());
+    }
+
     @EventHandler
     public void updateTag(PlayerJoinEvent event) {
         TagUpdateTask.run(plugin, event.getPlayer());
@@ -101,8 +129,8 @@ public final class PlayerListener implements Listener {
     @EventHandler(priority = EventPriority.LOWEST)
     public void broadcastKill(PlayerDeathEvent event) {
         // Do nothing if both kill messages are blank
-        String message = plugin.getSettings().getKillMessage();
-        String messageItem = plugin.getSettings().getKillMessageItem();
+        MessageTemplate message = plugin.getSettings().getKillMessageTemplate();
+        MessageTemplate messageItem = plugin.getSettings().getKillMessageItemTemplate();
         if (message.isEmpty() && messageItem.isEmpty()) return;
 
         Player player = event.getEntity();
@@ -134,27 +162,25 @@ public final class PlayerListener implements Listener {
 
         // Use item-based kill message?
         ItemStack item = p.getItemInHand();
+        String itemName = null;
         if (item.getType() != Material.AIR) {
-            String name = WordUtils.capitalizeFully(item.getType().name().replace("_", " "));
-            message = messageItem.replace("{item}", name);
+            itemName = WordUtils.capitalizeFully(item.getType().name().replace("_", " "));
+            message = messageItem;
         }
 
-        // Insert victim and attacker names into message
-        message = message.replace("{victim}", victim).replace("{attacker}", attacker);
-
-        // Broadcast kill message
-        Bukkit.broadcast(message, "ctplus.notify.kill");
+        // Insert item, victim and attacker names into message and broadcast it
+        Bukkit.broadcast(message.render("item", itemName, "victim", victim, "attacker", attacker), "ctplus.notify.kill");
     }
 
     @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
     public void disableCommand(PlayerCommandPreprocessEvent event) {
-        // Do nothing if player has bypass permission
-        Player player = event.getPlayer();
-        if (player.hasPermission("ctplus.bypass.command")) return;
-
         // Do nothing if player isn't even combat tagged
+        Player player = event.getPlayer();
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
 
+        // Do nothing if player has bypass permission
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.COMMAND)) return;
+
         String message = event.getMessage();
 
         // Is player using a denied command?
@@ -162,7 +188,7 @@ public final class PlayerListener implements Listener {
             // Cancel command
             event.setCancelled(true);
             if (!plugin.getSettings().getDisabledCommandMessage().isEmpty()) {
-                player.sendMessage(plugin.getSettings().getDisabledCommandMessage().replace("{command}", message));
+                player.sendMessage(plugin.getSettings().getDisabledCommandMessageTemplate().render("command", message));
             }
         }
     }
@@ -174,7 +200,7 @@ public final class PlayerListener implements Listener {
 
         // Do nothing if player has bypass permission
         Player player = event.getPlayer();
-        if (player.hasPermission("ctplus.bypass.blockedit")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.BLOCK_EDIT)) return;
 
         // Do nothing if player isn't even combat tagged
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
@@ -193,7 +219,7 @@ public final class PlayerListener implements Listener {
 
         // Do nothing if player has bypass permission
         Player player = event.getPlayer();
-        if (player.hasPermission("ctplus.bypass.blockedit")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.BLOCK_EDIT)) return;
 
         // Do nothing if player isn't even combat tagged
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
@@ -243,7 +269,7 @@ public final class PlayerListener implements Listener {
         }
 
         // Do nothing if player has bypass permission
-        if (player.hasPermission("ctplus.bypass.storageaccess")) {
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.STORAGE_ACCESS)) {
             return false;
         }
 
@@ -270,7 +296,7 @@ public final class PlayerListener implements Listener {
 
         // Do nothing if player has bypass permission
         Player player = event.getPlayer();
-        if (player.hasPermission("ctplus.bypass.enderpearl")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.ENDERPEARL)) return;
 
         // Do nothing if player isn't even combat tagged
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
@@ -298,7 +324,7 @@ public final class PlayerListener implements Listener {
 
         // Disable flying for victim
         p = event.getVictim();
-        if (p != null && p.isFlying() && !p.hasPermission("ctplus.bypass.flying")) {
+        if (p != null && p.isFlying() && !plugin.getPlayerCache().getProfile(p).canBypass(Bypass.FLYING)) {
             p.setAllowFlight(false);
             if (!plugin.getSettings().getDisableFlyingMessage().isEmpty()) {
                 p.sendMessage(plugin.getSettings().getDisableFlyingMessage());
@@ -307,7 +333,7 @@ public final class PlayerListener implements Listener {
 
         // Disable flying for attacker
         p = event.getAttacker();
-        if (p != null && p.isFlying() && !p.hasPermission("ctplus.bypass.flying")) {
+        if (p != null && p.isFlying() && !plugin.getPlayerCache().getProfile(p).canBypass(Bypass.FLYING)) {
             p.setAllowFlight(false);
             if (!plugin.getSettings().getDisableFlyingMessage().isEmpty()) {
                 p.sendMessage(plugin.getSettings().getDisableFlyingMessage());
@@ -328,7 +354,7 @@ public final class PlayerListener implements Listener {
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
 
         // Do nothing if player has bypass permission
-        if (player.hasPermission("ctplus.bypass.flying")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.FLYING)) return;
 
         // Cancel player's flight
         player.setAllowFlight(false);
@@ -365,7 +391,7 @@ public final class PlayerListener implements Listener {
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
 
         // Do nothing if player has bypass permission
-        if (player.hasPermission("ctplus.bypass.teleport")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.TELEPORT)) return;
 
         // Cancel the event and inform the player
         event.setCancelled(true);
@@ -387,7 +413,7 @@ public final class PlayerListener implements Listener {
         if (!plugin.getTagManager().isTagged(player.getUniqueId())) return;
 
         // Do nothing if player has bypass permission
-        if (player.hasPermission("ctplus.bypass.craft")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.CRAFT)) return;
 
         // Cancel the event and inform the player
         event.setCancelled(true);
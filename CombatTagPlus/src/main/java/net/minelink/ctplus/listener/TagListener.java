@@ -1,12 +1,14 @@
 package net.minelink.ctplus.listener;
 
 import com.google.common.collect.ImmutableSet;
+import net.minelink.ctplus.CombatProfile.Bypass;
 import net.minelink.ctplus.CombatTagPlus;
 import net.minelink.ctplus.Tag;
 import net.minelink.ctplus.TagManager;
 import net.minelink.ctplus.event.PlayerCombatTagEvent;
 import net.minelink.ctplus.task.SafeLogoutTask;
 import net.minelink.ctplus.task.TagUpdateTask;
+import net.minelink.ctplus.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
 import org.bukkit.entity.AnimalTamer;
@@ -179,7 +181,7 @@ public final class TagListener implements Listener {
 
         // Do nothign if player has permission to bypass tagging
         Player player = (Player) entity.getShooter();
-        if (player.hasPermission("ctplus.bypass.tag")) return;
+        if (plugin.getPlayerCache().getProfile(player).canBypass(Bypass.TAG)) return;
 
         // Do nothing if player is not tagged
         Tag tag = plugin.getTagManager().getTag(player.getUniqueId());
@@ -238,9 +240,9 @@ public final class TagListener implements Listener {
         if (victim != null && !plugin.getTagManager().isTagged(victim.getUniqueId())
                 && !plugin.getSettings().onlyTagAttacker()) {
             if (attacker != null) {
-                String message = plugin.getSettings().getTagMessage();
+                MessageTemplate message = plugin.getSettings().getTagMessageTemplate();
                 if (!message.isEmpty()) {
-                    victim.sendMessage(message.replace("{opponent}", attacker.getName()));
+                    victim.sendMessage(message.render("opponent", attacker.getName()));
                 }
             } else {
                 String message = plugin.getSettings().getTagUnknownMessage();
@@ -253,9 +255,9 @@ public final class TagListener implements Listener {
         // Send combat tag notification to attacker
         if (attacker != null && !plugin.getTagManager().isTagged(attacker.getUniqueId())) {
             if (victim != null) {
-                String message = plugin.getSettings().getTagMessage();
+                MessageTemplate message = plugin.getSettings().getTagMessageTemplate();
                 if (!message.isEmpty()) {
-                    attacker.sendMessage(message.replace("{opponent}", victim.getName()));
+                    attacker.sendMessage(message.render("opponent", victim.getName()));
                 }
             } else {
                 String message = plugin.getSettings().getTagUnknownMessage();
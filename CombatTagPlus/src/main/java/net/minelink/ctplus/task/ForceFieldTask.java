@@ -1,18 +1,31 @@
 package net.minelink.ctplus.task;
 
+import net.minelink.ctplus.BlockPosition;
 import net.minelink.ctplus.CombatTagPlus;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class ForceFieldTask extends BukkitRunnable {
+    private static final int PURGE_PERIOD = 20;
+
     private final CombatTagPlus plugin;
 
-    private final Map<UUID, Location> validLocations = new HashMap<>();
+    private final Map<UUID, PlayerState> states = new HashMap<>();
+
+    private final List<Player> teleports = new ArrayList<>();
+
+    private final Location location = new Location(null, 0, 0, 0);
+
+    private int ticks;
 
     private ForceFieldTask(CombatTagPlus plugin) {
         this.plugin = plugin;
@@ -23,19 +36,60 @@ public class ForceFieldTask extends BukkitRunnable {
         // Do nothing if anti-safezoning is disabled.
         if (!plugin.getSettings().denySafezone()) return;
 
-        for (Player player : plugin.getPlayerCache().getPlayers()) {
-            UUID playerId = player.getUniqueId();
+        // Only players holding a tag are visited
+        for (UUID playerId : plugin.getTagManager().getTaggedPlayers()) {
+            // Do nothing if player isn't online or is a hidden victim.
+            Player player = plugin.getPlayerCache().getPlayer(playerId);
+            if (player == null || !plugin.getTagManager().isTagged(playerId)) continue;
+
+            Location loc = player.getLocation(location);
+            World world = loc.getWorld();
+            long position = BlockPosition.pack(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
 
-            // Do nothing if player isn't even tagged.
-            if (!plugin.getTagManager().isTagged(playerId)) continue;
+            PlayerState state = states.get(playerId);
+            if (state == null) {
+                state = new PlayerState();
+                states.put(playerId, state);
+            } else if (state.world == world && state.position == position) {
+                // Nothing to check until the player steps onto another block.
+                continue;
+            }
+
+            state.world = world;
+            state.position = position;
 
-            Location loc = player.getLocation();
             if (plugin.getHookManager().isPvpEnabledAt(loc)) {
                 // Track the last PVP-enabled location that the player was in.
-                validLocations.put(playerId, loc);
-            } else if (validLocations.containsKey(playerId)) {
+                state.validWorld = world;
+                state.validPosition = position;
+            } else if (state.validWorld != null) {
                 // Teleport the player to the last valid PVP-enabled location.
-                player.teleport(validLocations.get(playerId));
+                teleports.add(player);
+
+                // Forget the unsafe block, so it's checked again should the teleport be cancelled or fail.
+                state.world = null;
+            }
+        }
+
+        // Teleports may untag the player, so they wait until the tags are no longer being iterated
+        for (Player player : teleports) {
+            PlayerState state = states.get(player.getUniqueId());
+            Location loc = player.getLocation(location);
+            player.teleport(new Location(state.validWorld, BlockPosition.unpackX(state.validPosition) + 0.5,
+                    BlockPosition.unpackY(state.validPosition), BlockPosition.unpackZ(state.validPosition) + 0.5,
+                    loc.getYaw(), loc.getPitch()));
+        }
+
+        teleports.clear();
+
+        // Forget players that are no longer tagged every so often
+        if (++ticks < PURGE_PERIOD) return;
+        ticks = 0;
+
+        Iterator<UUID> iterator = states.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!plugin.getTagManager().isTagged(iterator.next())) {
+                iterator.remove();
             }
         }
     }
@@ -43,4 +97,16 @@ public class ForceFieldTask extends BukkitRunnable {
     public static void run(CombatTagPlus plugin) {
         new ForceFieldTask(plugin).runTaskTimer(plugin, 1, 1);
     }
+
+    private static final class PlayerState {
+
+        private World world;
+
+        private long position;
+
+        private World validWorld;
+
+        private long validPosition;
+
+    }
 }
@@ -0,0 +1,130 @@
+package net.minelink.ctplus.task;
+
+import net.minelink.ctplus.CombatTagPlus;
+
+import java.util.Arrays;
+
+public final class NpcDespawnQueue implements Runnable {
+
+    private final CombatTagPlus plugin;
+
+    private NpcDespawnTask[] heap = new NpcDespawnTask[16];
+
+    private int size;
+
+    private int taskId = -1;
+
+    public NpcDespawnQueue(CombatTagPlus plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        // Do nothing if the queue is already being processed
+        if (taskId != -1) return;
+
+        taskId = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1).getTaskId();
+    }
+
+    public void stop() {
+        if (taskId == -1) return;
+
+        plugin.getServer().getScheduler().cancelTask(taskId);
+        taskId = -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void add(NpcDespawnTask task) {
+        // Do nothing if task is already queued
+        if (task.index != -1) return;
+
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+
+        task.index = size;
+        heap[size++] = task;
+        siftUp(task.index);
+    }
+
+    void remove(NpcDespawnTask task) {
+        // Do nothing if task isn't queued
+        int i = task.index;
+        if (i == -1) return;
+
+        task.index = -1;
+        NpcDespawnTask last = heap[--size];
+        heap[size] = null;
+
+        // Fill the hole with the last task and restore heap order
+        if (i != size) {
+            heap[i] = last;
+            last.index = i;
+            siftDown(i);
+            siftUp(last.index);
+        }
+    }
+
+    void update(NpcDespawnTask task) {
+        // Do nothing if task isn't queued
+        if (task.index == -1) return;
+
+        siftDown(task.index);
+        siftUp(task.index);
+    }
+
+    @Override
+    public void run() {
+        long currentTime = System.currentTimeMillis();
+
+        // Despawn every NPC whose time has come
+        while (size > 0 && heap[0].getTime() <= currentTime) {
+            NpcDespawnTask task = heap[0];
+            remove(task);
+            plugin.getNpcManager().despawn(task.getNpc());
+        }
+    }
+
+    private void siftUp(int i) {
+        NpcDespawnTask task = heap[i];
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            NpcDespawnTask p = heap[parent];
+            if (p.getTime() <= task.getTime()) break;
+
+            heap[i] = p;
+            p.index = i;
+            i = parent;
+        }
+
+        heap[i] = task;
+        task.index = i;
+    }
+
+    private void siftDown(int i) {
+        NpcDespawnTask task = heap[i];
+        int half = size >>> 1;
+
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].getTime() < heap[child].getTime()) {
+                child = right;
+            }
+
+            NpcDespawnTask c = heap[child];
+            if (task.getTime() <= c.getTime()) break;
+
+            heap[i] = c;
+            c.index = i;
+            i = child;
+        }
+
+        heap[i] = task;
+        task.index = i;
+    }
+
+}
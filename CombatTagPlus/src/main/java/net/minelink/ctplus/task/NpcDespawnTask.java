@@ -1,20 +1,19 @@
 package net.minelink.ctplus.task;
 
-import net.minelink.ctplus.CombatTagPlus;
 import net.minelink.ctplus.Npc;
 
-public class NpcDespawnTask implements Runnable {
+public class NpcDespawnTask {
 
-    private final CombatTagPlus plugin;
+    private final NpcDespawnQueue queue;
 
     private final Npc npc;
 
     private long time;
 
-    private int taskId;
+    int index = -1;
 
-    public NpcDespawnTask(CombatTagPlus plugin, Npc npc, long time) {
-        this.plugin = plugin;
+    public NpcDespawnTask(NpcDespawnQueue queue, Npc npc, long time) {
+        this.queue = queue;
         this.npc = npc;
         this.time = time;
     }
@@ -25,6 +24,9 @@ public class NpcDespawnTask implements Runnable {
 
     public void setTime(long time) {
         this.time = time;
+
+        // Move the task to its new position in the despawn queue
+        queue.update(this);
     }
 
     public Npc getNpc() {
@@ -32,22 +34,11 @@ public class NpcDespawnTask implements Runnable {
     }
 
     public void start() {
-        taskId = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1).getTaskId();
+        queue.add(this);
     }
 
     public void stop() {
-        plugin.getServer().getScheduler().cancelTask(taskId);
-    }
-
-    @Override
-    public void run() {
-        // Do nothing if NPC should not despawn yet
-        if (time > System.currentTimeMillis()) {
-            return;
-        }
-
-        // Despawn the NPC
-        plugin.getNpcManager().despawn(npc);
+        queue.remove(this);
     }
 
 }
@@ -0,0 +1,107 @@
+package net.minelink.ctplus.task;
+
+import net.minelink.ctplus.CombatTagPlus;
+import net.minelink.ctplus.Npc;
+import net.minelink.ctplus.compat.api.NpcPlayerHelper;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public final class NpcSpawnQueue implements Runnable {
+
+    private final CombatTagPlus plugin;
+
+    private final Map<Npc, Player> additions = new LinkedHashMap<>();
+
+    private final List<Player> removals = new ArrayList<>();
+
+    // Running estimate of how long it takes to add a single NPC to the world
+    private long spawnNanos = TimeUnit.MICROSECONDS.toNanos(250);
+
+    private int taskId = -1;
+
+    public NpcSpawnQueue(CombatTagPlus plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        // Do nothing if the queue is already being processed
+        if (taskId != -1) return;
+
+        taskId = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1).getTaskId();
+    }
+
+    public void stop() {
+        if (taskId == -1) return;
+
+        plugin.getServer().getScheduler().cancelTask(taskId);
+        taskId = -1;
+    }
+
+    public int size() {
+        return additions.size();
+    }
+
+    public void add(Npc npc) {
+        additions.put(npc, npc.getEntity());
+    }
+
+    // Returns true if the NPC was still waiting to be added to the world
+    public boolean cancel(Npc npc) {
+        return additions.remove(npc) != null;
+    }
+
+    public void remove(Npc npc) {
+        removals.add(npc.getEntity());
+    }
+
+    @Override
+    public void run() {
+        if (additions.isEmpty() && removals.isEmpty()) return;
+
+        NpcPlayerHelper helper = plugin.getNpcPlayerHelper();
+
+        // Removals go first in case a player's old NPC is replaced within the same tick
+        if (!removals.isEmpty()) {
+            helper.removePlayerInfo(Bukkit.getOnlinePlayers(), removals);
+            removals.clear();
+        }
+
+        if (additions.isEmpty()) return;
+
+        // Take as many NPCs as fit within this tick's budget, but always at least one so the queue keeps moving
+        long budget = TimeUnit.MICROSECONDS.toNanos(plugin.getSettings().getNpcSpawnTickBudget());
+        int count = (int) Math.max(1, Math.min(additions.size(), budget / spawnNanos));
+
+        List<Npc> npcs = new ArrayList<>(count);
+        List<Player> entities = new ArrayList<>(count);
+        Iterator<Map.Entry<Npc, Player>> it = additions.entrySet().iterator();
+        while (npcs.size() < count) {
+            Map.Entry<Npc, Player> entry = it.next();
+            npcs.add(entry.getKey());
+            entities.add(entry.getValue());
+            it.remove();
+        }
+
+        long start = System.nanoTime();
+
+        // Clients need the player info before the spawn packets the entity tracker sends
+        helper.addPlayerInfo(Bukkit.getOnlinePlayers(), entities);
+
+        for (Npc npc : npcs) {
+            helper.addToWorld(npc.getEntity());
+            plugin.getNpcManager().addedToWorld(npc);
+        }
+
+        // Let the estimate follow the actual cost so a slow tick shrinks the next batch
+        long elapsed = (System.nanoTime() - start) / count;
+        spawnNanos = Math.max(1, (spawnNanos * 3 + elapsed) / 4);
+    }
+
+}
@@ -4,45 +4,67 @@ import net.minelink.ctplus.CombatTagPlus;
 import net.minelink.ctplus.Tag;
 import net.minelink.ctplus.util.BarUtils;
 
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitScheduler;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.UUID;
 
 public final class TagUpdateTask extends BukkitRunnable {
 
-    private final static Map<UUID, Integer> tasks = new HashMap<>();
+    private static final int UPDATE_PERIOD = 5;
+
+    private static TagUpdateTask instance;
 
     private final CombatTagPlus plugin;
 
-    private final UUID playerId;
+    private final Set<UUID> pending = new LinkedHashSet<>();
+
+    private final Set<UUID> players = new LinkedHashSet<>();
+
+    private int ticks;
 
-    private TagUpdateTask(CombatTagPlus plugin, Player player) {
+    private TagUpdateTask(CombatTagPlus plugin) {
         this.plugin = plugin;
-        this.playerId = player.getUniqueId();
     }
 
     @Override
     public void run() {
-        // Cancel if player went offline
-        Player player = plugin.getPlayerCache().getPlayer(playerId);
-        if (player == null) {
-            cancel();
-            return;
+        // Start displaying players that were tagged since the last tick
+        if (!pending.isEmpty()) {
+            for (UUID playerId : pending) {
+                // Do nothing if player isn't tagged or online
+                Player player = plugin.getPlayerCache().getPlayer(playerId);
+                if (player == null || !plugin.getTagManager().isTagged(playerId)) continue;
+
+                // Display the bar straight away if player isn't already tracked
+                if (players.add(playerId) && !update(player)) {
+                    players.remove(playerId);
+                }
+            }
+
+            pending.clear();
         }
 
-        // Remove bar before displaying the next one
-        if (plugin.getSettings().useBarApi() && BarUtils.hasBar(player)) {
-            BarUtils.removeBar(player);
+        // Update every tracked player every few ticks
+        if (++ticks < UPDATE_PERIOD) return;
+        ticks = 0;
+
+        Iterator<UUID> iterator = players.iterator();
+        while (iterator.hasNext()) {
+            // Stop tracking if player went offline
+            Player player = plugin.getPlayerCache().getPlayer(iterator.next());
+            if (player == null || !update(player)) {
+                iterator.remove();
+            }
         }
+    }
 
-        // Cancel if player is no longer tagged
-        Tag tag = plugin.getTagManager().getTag(playerId);
+    private boolean update(Player player) {
+        // Stop tracking if player is no longer tagged
+        Tag tag = plugin.getTagManager().getTag(player.getUniqueId());
         if (tag == null || tag.isExpired()) {
             if (plugin.getSettings().useBarApi()) {
                 BarUtils.setMessage(player, plugin.getSettings().getBarApiEndedMessage(), 1);
@@ -51,85 +73,51 @@ public final class TagUpdateTask extends BukkitRunnable {
             if (!plugin.getSettings().getUntagMessage().isEmpty()) {
                 player.sendMessage(plugin.getSettings().getUntagMessage());
             }
-            cancel();
-            return;
+            return false;
         }
 
         if (plugin.getSettings().useBarApi()) {
             int remainingDuration = tag.getTagDuration();
             int tagDuration = plugin.getSettings().getTagDuration();
             float percent = ((float) remainingDuration / tagDuration) * 100;
-            String remaining = plugin.getSettings().formatDuration(remainingDuration);
 
-            // Display remaining timer in boss bar
-            String message = plugin.getSettings().getBarApiCountdownMessage().replace("{remaining}", remaining);
+            // Display remaining timer in boss bar, the bar stays up and only changes are sent
+            String message = plugin.getSettings().getBarApiCountdownMessage(remainingDuration);
             BarUtils.setMessage(player, message, percent);
         }
-    }
-
-    public static void run(final CombatTagPlus plugin, final Player p) {
-        // Do nothing if player is a NPC
-        if (plugin.getNpcPlayerHelper().isNpc(p)) return;
-
-        final BukkitScheduler s = Bukkit.getScheduler();
-
-        // Schedule the task to run on next tick
-        s.scheduleSyncDelayedTask(plugin, new Runnable() {
-            @Override
-            public void run() {
-                // Do nothing if player isn't tagged or online
-                if (!plugin.getTagManager().isTagged(p.getUniqueId()) || !p.isOnline()) {
-                    return;
-                }
 
-                UUID playerId = p.getUniqueId();
-                Integer taskId = tasks.get(playerId);
+        return true;
+    }
 
-                // Do nothing if player already has an active task
-                if (taskId != null && (s.isQueued(taskId) || s.isCurrentlyRunning(taskId))) {
-                    return;
-                }
+    public static void start(CombatTagPlus plugin) {
+        // Do nothing if the task is already running
+        if (instance != null) return;
 
-                // Create new repeating task
-                taskId = new TagUpdateTask(plugin, p).runTaskTimer(plugin, 0, 5).getTaskId();
-                tasks.put(playerId, taskId);
-            }
-        });
+        instance = new TagUpdateTask(plugin);
+        instance.runTaskTimer(plugin, 1, 1);
     }
 
-    public static void purgeFinished() {
-        Iterator<Integer> iterator = tasks.values().iterator();
-        BukkitScheduler s = Bukkit.getScheduler();
+    public static void run(CombatTagPlus plugin, Player p) {
+        // Do nothing if player is a NPC or the task isn't running
+        if (instance == null || plugin.getNpcPlayerHelper().isNpc(p)) return;
 
-        // Loop over each task
-        while (iterator.hasNext()) {
-            int taskId = iterator.next();
-
-            // Remove entry if task isn't running anymore
-            if (!s.isQueued(taskId) && !s.isCurrentlyRunning(taskId)) {
-                iterator.remove();
-            }
-        }
+        // Player is picked up on the next tick, once the tag has been applied
+        instance.pending.add(p.getUniqueId());
     }
 
     public static void cancelTasks(CombatTagPlus plugin) {
-        Iterator<UUID> iterator = tasks.keySet().iterator();
-        while (iterator.hasNext()) {
-            UUID uuid = iterator.next();
+        if (instance == null) return;
+
+        // Remove any bars still being displayed
+        for (UUID uuid : instance.players) {
             Player player = plugin.getPlayerCache().getPlayer(uuid);
             if (player != null && plugin.getSettings().useBarApi() && BarUtils.hasBar(player)) {
                 BarUtils.removeBar(player);
             }
-
-            int taskId = tasks.get(uuid);
-            BukkitScheduler s = Bukkit.getScheduler();
-
-            if (s.isQueued(taskId) || s.isCurrentlyRunning(taskId)) {
-                s.cancelTask(taskId);
-            }
-
-            iterator.remove();
         }
+
+        instance.cancel();
+        instance = null;
     }
 
 }
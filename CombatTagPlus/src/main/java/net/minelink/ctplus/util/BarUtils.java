@@ -4,6 +4,7 @@ import me.confuser.barapi.BarAPI;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 import com.connorlinfoot.actionbarapi.ActionBarAPI;
 import com.google.common.base.Preconditions;
@@ -21,6 +22,11 @@ import org.inventivetalent.bossbar.BossBarAPI;
 public final class BarUtils {
 
     private static final CombatTagPlus plugin = CombatTagPlus.getPlugin(CombatTagPlus.class);
+
+    // Boss bars are drawn 182 pixels wide, progress is rounded to that so only visible changes are sent
+    private static final int BAR_WIDTH = 182;
+
+    private static final Map<UUID, BarState> states = new HashMap<>();
     private static Handler handler;
 
     public static void init() {
@@ -42,22 +48,47 @@ public final class BarUtils {
     public static void setMessage(Player player, String message, int timeout) {
         if (handler != null) {
             handler.setMessage(player, message, timeout);
+            states.put(player.getUniqueId(), new BarState(message, BAR_WIDTH));
         }
     }
 
-
     public static void setMessage(Player player, String message, float percent) {
-        if (handler != null) {
-            handler.setMessage(player, message, percent);
+        if (handler == null) return;
+
+        // Do nothing if the player would see exactly the same bar
+        int progress = Math.round(percent / 100 * BAR_WIDTH);
+        BarState state = states.get(player.getUniqueId());
+        if (state != null && state.progress == progress && state.message.equals(message) &&
+                !handler.needsRefresh(state)) {
+            return;
         }
+
+        handler.setMessage(player, message, progress * 100F / BAR_WIDTH);
+        states.put(player.getUniqueId(), new BarState(message, progress));
     }
 
     public static void removeBar(Player player) {
         if (handler != null) {
+            states.remove(player.getUniqueId());
             handler.removeBar(player);
         }
     }
 
+    private static final class BarState {
+
+        private final String message;
+
+        private final int progress;
+
+        private final long sentTime = System.currentTimeMillis();
+
+        BarState(String message, int progress) {
+            this.message = message;
+            this.progress = progress;
+        }
+
+    }
+
     private enum Handler {
         NEW_BUKKIT_API {
             private final Map<Player, BossBar> bars = new HashMap<>();
@@ -68,12 +99,16 @@ public final class BarUtils {
             }
 
             @Override
-            public void setMessage(final Player player, String message, int timeout) {
+            public void setMessage(final Player player, final String message, int timeout) {
                 setMessage(player, message, 100F);
+                final BossBar bar = bars.get(player);
                 new BukkitRunnable() {
                     @Override
                     public void run() {
-                        removeBar(player);
+                        // Leave the bar alone if it has moved on to another message since
+                        if (bars.get(player) == bar && message.equals(bar.getTitle())) {
+                            BarUtils.removeBar(player);
+                        }
                     }
                 }.runTaskLater(plugin, 20 * timeout);
             }
@@ -84,14 +119,20 @@ public final class BarUtils {
                 BossBar bar = bars.get(player);
                 if (bar == null) {
                     bar = Bukkit.createBossBar(message, BarColor.RED, BarStyle.SOLID);
+                    bar.setProgress(percent / 100.0);
                     bars.put(player, bar);
                     bar.addPlayer(player);
-                } else {
+                    return;
+                }
+
+                // Every setter sends a packet, so only touch what actually changed
+                if (!message.equals(bar.getTitle())) {
                     bar.setTitle(message);
                 }
-                bar.setVisible(false);
-                bar.setProgress(percent / 100.0);
-                bar.setVisible(true);
+
+                if (bar.getProgress() != percent / 100.0) {
+                    bar.setProgress(percent / 100.0);
+                }
             }
 
             @Override
@@ -108,6 +149,12 @@ public final class BarUtils {
                 return false;
             }
 
+            @Override
+            public boolean needsRefresh(BarState state) {
+                // The client fades out the action bar after a few seconds
+                return System.currentTimeMillis() - state.sentTime >= 2000;
+            }
+
             @Override
             public void setMessage(Player player, String message, int timeout) {
                 ActionBarAPI.sendActionBar(player, message);
@@ -173,6 +220,10 @@ public final class BarUtils {
         public abstract void setMessage(Player player, String message, int timeout);
         public abstract void setMessage(Player player, String message, float percent);
         public abstract void removeBar(Player player);
+
+        public boolean needsRefresh(BarState state) {
+            return false;
+        }
     }
 
 }
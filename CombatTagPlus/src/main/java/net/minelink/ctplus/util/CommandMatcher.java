@@ -0,0 +1,106 @@
+package net.minelink.ctplus.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Character trie built from a list of commands. An entry matches a command line that equals it or continues with
+ * arguments after a space. An entry ending with '*' matches anything starting with the text before it, so '*' on its
+ * own matches every command. Matching walks the command line once and never allocates.
+ */
+public final class CommandMatcher {
+
+    private final Node root = new Node();
+
+    private CommandMatcher() {
+
+    }
+
+    public static CommandMatcher compile(Collection<String> commands) {
+        CommandMatcher matcher = new CommandMatcher();
+
+        for (String command : commands) {
+            command = command.trim().toLowerCase(Locale.ENGLISH);
+            if (command.startsWith("/")) {
+                command = command.substring(1);
+            }
+
+            boolean wildcard = command.endsWith("*");
+            if (wildcard) {
+                command = command.substring(0, command.length() - 1);
+            } else if (command.isEmpty()) {
+                continue;
+            }
+
+            Node node = matcher.root;
+            for (int i = 0; i < command.length(); i++) {
+                node = node.getOrAddChild(command.charAt(i));
+            }
+
+            if (wildcard) {
+                node.wildcard = true;
+            } else {
+                node.terminal = true;
+            }
+        }
+
+        return matcher;
+    }
+
+    public boolean matches(String message) {
+        int i = message.startsWith("/") ? 1 : 0;
+        Node node = root;
+
+        while (true) {
+            if (node.wildcard) return true;
+
+            // A whole command ends here if the line ends or arguments follow
+            if (node.terminal && (i == message.length() || message.charAt(i) == ' ')) return true;
+
+            if (i == message.length()) return false;
+
+            node = node.getChild(Character.toLowerCase(message.charAt(i++)));
+            if (node == null) return false;
+        }
+    }
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private boolean terminal;
+
+        private boolean wildcard;
+
+        Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) return children[index];
+
+            // Keep keys sorted so lookups can binary search
+            index = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+            Node child = new Node();
+            newKeys[index] = c;
+            newChildren[index] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package net.minelink.ctplus.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Segmented cache with approximate LRU eviction using the CLOCK algorithm. Reads never lock, they only mark the
+ * entry as recently used. Writes lock the segment the key hashes to.
+ */
+public final class ConcurrentClockCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentClockCache(int capacity) {
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(segmentCapacity);
+        }
+    }
+
+    public V get(K key) {
+        Node<K, V> node = segmentFor(key).map.get(key);
+        if (node == null) return null;
+
+        // Avoid writing to shared memory when the entry is already marked
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+
+        return node.value;
+    }
+
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    public V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private static final class Segment<K, V> {
+
+        private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+
+        private final Node<K, V>[] ring;
+
+        private int size;
+
+        private int hand;
+
+        @SuppressWarnings("unchecked")
+        Segment(int capacity) {
+            this.ring = new Node[capacity];
+        }
+
+        synchronized void put(K key, V value) {
+            Node<K, V> node = new Node<>(key, value);
+            Node<K, V> existing = map.get(key);
+
+            if (existing != null) {
+                // Take over the slot of the entry being replaced
+                node.slot = existing.slot;
+            } else if (size < ring.length) {
+                node.slot = size++;
+            } else {
+                // Sweep the clock hand, giving recently used entries a second chance
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+
+                map.remove(ring[hand].key);
+                node.slot = hand;
+                hand = (hand + 1) % ring.length;
+            }
+
+            ring[node.slot] = node;
+            map.put(key, node);
+        }
+
+        synchronized V remove(K key) {
+            Node<K, V> node = map.remove(key);
+            if (node == null) return null;
+
+            // Move the last entry into the freed slot
+            Node<K, V> last = ring[--size];
+            ring[node.slot] = last;
+            last.slot = node.slot;
+            ring[size] = null;
+
+            if (hand >= size) {
+                hand = 0;
+            }
+
+            return node.value;
+        }
+
+        synchronized void clear() {
+            map.clear();
+
+            for (int i = 0; i < size; i++) {
+                ring[i] = null;
+            }
+
+            size = 0;
+            hand = 0;
+        }
+
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private volatile boolean referenced;
+
+        private int slot;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+    }
+
+}
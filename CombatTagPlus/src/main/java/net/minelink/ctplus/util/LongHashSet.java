@@ -0,0 +1,169 @@
+package net.minelink.ctplus.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressing set of primitive longs. Removed slots are left as tombstones so entries can be dropped while
+ * iterating, they are swept out the next time the table is rebuilt.
+ */
+public final class LongHashSet {
+
+    private static final byte EMPTY = 0;
+
+    private static final byte FULL = 1;
+
+    private static final byte REMOVED = 2;
+
+    private long[] keys;
+
+    private byte[] states;
+
+    private int size;
+
+    private int used;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+
+        keys = new long[capacity];
+        states = new byte[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask; states[i] != EMPTY; i = (i + 1) & mask) {
+            if (states[i] == FULL && keys[i] == key) return true;
+        }
+
+        return false;
+    }
+
+    public boolean add(long key) {
+        int mask = keys.length - 1;
+        int free = -1;
+        int i = hash(key) & mask;
+
+        for (; states[i] != EMPTY; i = (i + 1) & mask) {
+            if (states[i] == FULL) {
+                if (keys[i] == key) return false;
+            } else if (free == -1) {
+                free = i;
+            }
+        }
+
+        // Reuse the first tombstone on the probe chain if there was one
+        if (free != -1) {
+            i = free;
+        } else {
+            used++;
+        }
+
+        keys[i] = key;
+        states[i] = FULL;
+        size++;
+
+        if (used * 2 > keys.length) {
+            rehash(size * 2 > keys.length / 2 ? keys.length * 2 : keys.length);
+        }
+
+        return true;
+    }
+
+    public boolean remove(long key) {
+        int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask; states[i] != EMPTY; i = (i + 1) & mask) {
+            if (states[i] == FULL && keys[i] == key) {
+                states[i] = REMOVED;
+                size--;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public void removeIf(LongPredicate filter) {
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == FULL && filter.test(keys[i])) {
+                states[i] = REMOVED;
+                size--;
+            }
+        }
+    }
+
+    public void forEach(LongConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == FULL) {
+                consumer.accept(keys[i]);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] array = new long[size];
+        int j = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == FULL) {
+                array[j++] = keys[i];
+            }
+        }
+
+        return array;
+    }
+
+    public void clear() {
+        Arrays.fill(states, EMPTY);
+        size = 0;
+        used = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+
+        keys = new long[capacity];
+        states = new byte[capacity];
+        used = size;
+
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldStates[j] != FULL) continue;
+
+            int i = hash(oldKeys[j]) & mask;
+            while (states[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = oldKeys[j];
+            states[i] = FULL;
+        }
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
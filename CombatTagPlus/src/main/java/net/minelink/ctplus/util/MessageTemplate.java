@@ -0,0 +1,110 @@
+package net.minelink.ctplus.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message with {placeholder} tokens split out when the config is loaded. Rendering substitutes every placeholder in a
+ * single pass over a reused buffer, placeholders without a value are left as they are.
+ */
+public final class MessageTemplate {
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    private final String source;
+
+    // Alternating literal text and placeholder names, always starting and ending with literal text
+    private final String[] parts;
+
+    private MessageTemplate(String source, String[] parts) {
+        this.source = source;
+        this.parts = parts;
+    }
+
+    public static MessageTemplate compile(String source) {
+        List<String> parts = new ArrayList<>();
+        int literalStart = 0;
+        int i = 0;
+
+        int open;
+        while ((open = source.indexOf('{', i)) != -1) {
+            int close = source.indexOf('}', open + 1);
+            if (close == -1) break;
+
+            String name = source.substring(open + 1, close);
+            if (!isName(name)) {
+                i = open + 1;
+                continue;
+            }
+
+            parts.add(source.substring(literalStart, open));
+            parts.add(name);
+            literalStart = i = close + 1;
+        }
+
+        parts.add(source.substring(literalStart));
+        return new MessageTemplate(source, parts.toArray(new String[parts.size()]));
+    }
+
+    public boolean isEmpty() {
+        return source.isEmpty();
+    }
+
+    // Placeholder values are given as name and value pairs
+    public String render(String... values) {
+        if (parts.length == 1) return source;
+
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+
+        for (int i = 0; i < parts.length; i++) {
+            if ((i & 1) == 0) {
+                buffer.append(parts[i]);
+                continue;
+            }
+
+            String value = lookup(parts[i], values);
+            if (value != null) {
+                buffer.append(value);
+            } else {
+                buffer.append('{').append(parts[i]).append('}');
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static String lookup(String name, String[] values) {
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            if (name.equals(values[i])) {
+                return values[i + 1];
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty()) return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,160 @@
+package net.minelink.ctplus.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel with one second resolution. Deadlines cascade inwards as the wheel turns, so advancing
+ * only touches the slot for the current second.
+ */
+public final class TimingWheel<K> {
+
+    private static final int BITS = 6;
+
+    private static final int SLOTS = 1 << BITS;
+
+    private static final int MASK = SLOTS - 1;
+
+    private final List<List<Entry<K>>> inner = createWheel();
+
+    private final List<List<Entry<K>>> outer = createWheel();
+
+    private final List<Entry<K>> overflow = new ArrayList<>();
+
+    private long cursor;
+
+    private int size;
+
+    public TimingWheel(long currentTime) {
+        this.cursor = currentTime / 1000;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void schedule(K key, long deadline) {
+        place(new Entry<>(key, deadline));
+        size++;
+    }
+
+    public void advance(long currentTime, Listener<K> listener) {
+        long second = currentTime / 1000;
+
+        // Drain every second that has fully elapsed
+        while (cursor < second) {
+            List<Entry<K>> slot = inner.get((int) (cursor & MASK));
+            if (!slot.isEmpty()) {
+                List<Entry<K>> expired = new ArrayList<>(slot);
+                slot.clear();
+                size -= expired.size();
+
+                for (Entry<K> entry : expired) {
+                    listener.expired(entry.key);
+                }
+            }
+
+            cursor++;
+
+            // Pull the next block of deadlines into the inner wheel
+            if ((cursor & MASK) == 0) {
+                if (((cursor >> BITS) & MASK) == 0) {
+                    cascade(overflow);
+                }
+
+                cascade(outer.get((int) ((cursor >> BITS) & MASK)));
+            }
+        }
+
+        // Fire anything in the current second that is already due
+        List<Entry<K>> slot = inner.get((int) (cursor & MASK));
+        if (slot.isEmpty()) return;
+
+        List<Entry<K>> expired = null;
+        Iterator<Entry<K>> iterator = slot.iterator();
+
+        while (iterator.hasNext()) {
+            Entry<K> entry = iterator.next();
+            if (entry.deadline > currentTime) continue;
+
+            if (expired == null) {
+                expired = new ArrayList<>();
+            }
+
+            expired.add(entry);
+            iterator.remove();
+            size--;
+        }
+
+        if (expired == null) return;
+
+        for (Entry<K> entry : expired) {
+            listener.expired(entry.key);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            inner.get(i).clear();
+            outer.get(i).clear();
+        }
+
+        overflow.clear();
+        size = 0;
+    }
+
+    private void place(Entry<K> entry) {
+        // Overdue entries fire on the next advance
+        long second = Math.max(entry.deadline / 1000, cursor);
+        long blocks = (second >> BITS) - (cursor >> BITS);
+
+        if (blocks == 0) {
+            inner.get((int) (second & MASK)).add(entry);
+        } else if (blocks < SLOTS) {
+            outer.get((int) ((second >> BITS) & MASK)).add(entry);
+        } else {
+            overflow.add(entry);
+        }
+    }
+
+    private void cascade(List<Entry<K>> slot) {
+        if (slot.isEmpty()) return;
+
+        List<Entry<K>> entries = new ArrayList<>(slot);
+        slot.clear();
+
+        for (Entry<K> entry : entries) {
+            place(entry);
+        }
+    }
+
+    private static <K> List<List<Entry<K>>> createWheel() {
+        List<List<Entry<K>>> wheel = new ArrayList<>(SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ArrayList<Entry<K>>());
+        }
+
+        return wheel;
+    }
+
+    public interface Listener<K> {
+
+        void expired(K key);
+
+    }
+
+    private static final class Entry<K> {
+
+        private final K key;
+
+        private final long deadline;
+
+        Entry(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+    }
+
+}
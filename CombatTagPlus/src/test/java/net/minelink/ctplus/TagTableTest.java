@@ -0,0 +1,126 @@
+package net.minelink.ctplus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TagTableTest {
+
+    private static final long NOW = 1000;
+
+    private static final long LATER = 2000;
+
+    @Test
+    public void putAndLookup() {
+        TagTable table = new TagTable();
+        UUID attacker = new UUID(1, 1);
+        UUID victim = new UUID(2, 2);
+        UUID expired = new UUID(3, 3);
+
+        table.put(attacker, LATER, false);
+        table.put(victim, LATER, true);
+        table.put(expired, NOW, false);
+
+        assertTrue(table.isTagged(attacker, NOW, false));
+        assertTrue(table.isTagged(attacker, NOW, true));
+        assertTrue(table.isTagged(victim, NOW, false));
+        assertFalse(table.isTagged(victim, NOW, true));
+        assertFalse(table.isTagged(expired, NOW, false));
+        assertFalse(table.isTagged(new UUID(4, 4), NOW, false));
+    }
+
+    @Test
+    public void putReplacesExistingTag() {
+        TagTable table = new TagTable();
+        UUID playerId = new UUID(1, 1);
+
+        table.put(playerId, LATER, true);
+        table.put(playerId, NOW, false);
+        assertFalse(table.isTagged(playerId, NOW, false));
+
+        table.put(playerId, LATER, false);
+        assertTrue(table.isTagged(playerId, NOW, true));
+
+        // A single removal clears it, so the second put didn't leave a duplicate behind
+        table.remove(playerId);
+        assertFalse(table.isTagged(playerId, NOW, false));
+    }
+
+    @Test
+    public void remove() {
+        TagTable table = new TagTable();
+        UUID playerId = new UUID(1, 1);
+        UUID other = new UUID(2, 2);
+
+        table.put(playerId, LATER, false);
+        table.put(other, LATER, false);
+        table.remove(playerId);
+        table.remove(new UUID(3, 3));
+
+        assertFalse(table.isTagged(playerId, NOW, false));
+        assertTrue(table.isTagged(other, NOW, false));
+    }
+
+    @Test
+    public void removeAcrossWraparound() {
+        TagTable table = new TagTable();
+
+        // Players hashing to the last slot of the initial table probe on into the first slots
+        List<UUID> chain = new ArrayList<>();
+        for (long i = 0; chain.size() < 4; i++) {
+            if ((TagTable.hash(i, 0) & 63) == 63) {
+                chain.add(new UUID(i, 0));
+            }
+        }
+
+        for (UUID playerId : chain) {
+            table.put(playerId, LATER, false);
+        }
+
+        // Removing the head of the chain shifts the wrapped entries back across the end of the table
+        table.remove(chain.get(0));
+        assertFalse(table.isTagged(chain.get(0), NOW, false));
+        for (UUID playerId : chain.subList(1, chain.size())) {
+            assertTrue(table.isTagged(playerId, NOW, false));
+        }
+
+        table.remove(chain.get(2));
+        assertTrue(table.isTagged(chain.get(1), NOW, false));
+        assertFalse(table.isTagged(chain.get(2), NOW, false));
+        assertTrue(table.isTagged(chain.get(3), NOW, false));
+    }
+
+    @Test
+    public void resize() {
+        TagTable table = new TagTable();
+        Random random = new Random(0);
+        List<UUID> playerIds = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            UUID playerId = new UUID(random.nextLong(), random.nextLong());
+            playerIds.add(playerId);
+            table.put(playerId, LATER, i % 2 == 0);
+        }
+
+        for (int i = 0; i < playerIds.size(); i++) {
+            assertTrue(table.isTagged(playerIds.get(i), NOW, false));
+            assertEquals(i % 2 != 0, table.isTagged(playerIds.get(i), NOW, true));
+        }
+
+        for (int i = 0; i < playerIds.size(); i += 2) {
+            table.remove(playerIds.get(i));
+        }
+
+        for (int i = 0; i < playerIds.size(); i++) {
+            assertEquals(i % 2 != 0, table.isTagged(playerIds.get(i), NOW, false));
+        }
+    }
+
+}
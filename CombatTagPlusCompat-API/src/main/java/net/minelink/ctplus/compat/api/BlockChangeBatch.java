@@ -0,0 +1,128 @@
+package net.minelink.ctplus.compat.api;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class BlockChangeBatch {
+
+    private final Map<Long, Section> sections = new LinkedHashMap<>();
+
+    private int size;
+
+    public void add(int x, int y, int z, Material material, byte data) {
+        int chunkX = x >> 4;
+        int sectionY = y >> 4;
+        int chunkZ = z >> 4;
+        long key = ((long) chunkX & 0x3FFFFF) << 42 | ((long) chunkZ & 0x3FFFFF) << 20 | ((long) sectionY & 0xFFFFF);
+
+        // Changes are grouped by chunk section as they come in
+        Section section = sections.get(key);
+        if (section == null) {
+            section = new Section(chunkX, sectionY, chunkZ);
+            sections.put(key, section);
+        }
+
+        section.add((short) ((x & 15) << 8 | (z & 15) << 4 | (y & 15)), material, data);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Collection<Section> getSections() {
+        return sections.values();
+    }
+
+    public void clear() {
+        sections.clear();
+        size = 0;
+    }
+
+    public static final class Section {
+
+        private final int chunkX;
+
+        private final int sectionY;
+
+        private final int chunkZ;
+
+        private short[] positions = new short[16];
+
+        private Material[] materials = new Material[16];
+
+        private byte[] data = new byte[16];
+
+        private int size;
+
+        private Section(int chunkX, int sectionY, int chunkZ) {
+            this.chunkX = chunkX;
+            this.sectionY = sectionY;
+            this.chunkZ = chunkZ;
+        }
+
+        private void add(short position, Material material, byte data) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                materials = Arrays.copyOf(materials, size * 2);
+                this.data = Arrays.copyOf(this.data, size * 2);
+            }
+
+            positions[size] = position;
+            materials[size] = material;
+            this.data[size] = data;
+            size++;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getSectionY() {
+            return sectionY;
+        }
+
+        public int getChunkZ() {
+            return chunkZ;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Position within the section packed as x << 8 | z << 4 | y
+        public short getPosition(int index) {
+            return positions[index];
+        }
+
+        public int getX(int index) {
+            return chunkX << 4 | positions[index] >> 8 & 15;
+        }
+
+        public int getY(int index) {
+            return sectionY << 4 | positions[index] & 15;
+        }
+
+        public int getZ(int index) {
+            return chunkZ << 4 | positions[index] >> 4 & 15;
+        }
+
+        public Material getMaterial(int index) {
+            return materials[index];
+        }
+
+        public byte getData(int index) {
+            return data[index];
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package net.minelink.ctplus.compat.api;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.entity.Player;
+
+public interface BlockChangeHelper {
+
+    // Sends one multi block change packet per chunk section in the batch, safe to call from any thread
+    void sendBlockChanges(Player player, BlockChangeBatch batch);
+
+    // Block accessors of ChunkSnapshot changed with 1.13, these take world coordinates within the given chunk
+    boolean isAir(ChunkSnapshot chunk, int x, int y, int z);
+
+    // Adds the block the chunk snapshot holds at the given position to the batch
+    void addBlock(BlockChangeBatch batch, ChunkSnapshot chunk, int x, int y, int z);
+
+}
@@ -2,22 +2,39 @@ package net.minelink.ctplus.compat.api;
 
 import org.bukkit.entity.Player;
 
+import java.util.Collection;
+import java.util.UUID;
+
 public interface NpcPlayerHelper {
 
+    // Copies the player's profile properties ahead of time, so a later spawn doesn't have to
+    void prepare(Player player);
+
+    // Throws away whatever was prepared for the player
+    void discardPrepared(UUID playerId);
+
+    // Creates the NPC in the player's place, it isn't visible to anyone until it's added to the world
     Player spawn(Player player);
 
+    // Viewers must have been sent the NPC's player info before it's added to the world
+    void addToWorld(Player player);
+
+    // Removes the NPC from the world, its player info is left to the caller
     void despawn(Player player);
 
     boolean isNpc(Player player);
 
     NpcIdentity getIdentity(Player player);
 
-    void updateEquipment(Player player);
+    // Everything createOfflineSync would write for the NPC right now, equal states write the same data
+    Object getOfflineSyncState(Player player);
 
-    void syncOffline(Player player);
+    // Snapshots the NPC's player data on the main thread, the returned task writes it and may run on any thread
+    Runnable createOfflineSync(Player player);
 
-    void createPlayerList(Player player);
+    // Sends every NPC in a single player info packet to each viewer
+    void addPlayerInfo(Collection<? extends Player> viewers, Collection<Player> npcs);
 
-    void removePlayerList(Player player);
+    void removePlayerInfo(Collection<? extends Player> viewers, Collection<Player> npcs);
 
 }
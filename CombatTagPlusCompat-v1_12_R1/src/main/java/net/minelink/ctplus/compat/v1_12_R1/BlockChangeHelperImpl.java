@@ -0,0 +1,74 @@
+package net.minelink.ctplus.compat.v1_12_R1;
+
+import net.minecraft.server.v1_12_R1.ChunkCoordIntPair;
+import net.minecraft.server.v1_12_R1.PacketPlayOutMultiBlockChange;
+import net.minecraft.server.v1_12_R1.PacketPlayOutMultiBlockChange.MultiBlockChangeInfo;
+import net.minecraft.server.v1_12_R1.PlayerConnection;
+import net.minelink.ctplus.compat.api.BlockChangeBatch;
+import net.minelink.ctplus.compat.api.BlockChangeHelper;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.v1_12_R1.entity.CraftPlayer;
+import org.bukkit.craftbukkit.v1_12_R1.util.CraftMagicNumbers;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Field;
+
+public final class BlockChangeHelperImpl implements BlockChangeHelper {
+
+    private final Field chunkField;
+
+    private final Field changesField;
+
+    public BlockChangeHelperImpl() {
+        try {
+            chunkField = PacketPlayOutMultiBlockChange.class.getDeclaredField("a");
+            chunkField.setAccessible(true);
+            changesField = PacketPlayOutMultiBlockChange.class.getDeclaredField("b");
+            changesField.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void sendBlockChanges(Player player, BlockChangeBatch batch) {
+        PlayerConnection connection = ((CraftPlayer) player).getHandle().playerConnection;
+
+        for (BlockChangeBatch.Section section : batch.getSections()) {
+            PacketPlayOutMultiBlockChange packet = new PacketPlayOutMultiBlockChange();
+            MultiBlockChangeInfo[] changes = new MultiBlockChangeInfo[section.size()];
+
+            for (int i = 0; i < section.size(); i++) {
+                // Positions in this packet are relative to the chunk column rather than the section
+                short position = (short) ((section.getX(i) & 15) << 12 | (section.getZ(i) & 15) << 8 | section.getY(i));
+                changes[i] = packet.new MultiBlockChangeInfo(position,
+                        CraftMagicNumbers.getBlock(section.getMaterial(i)).fromLegacyData(section.getData(i)));
+            }
+
+            try {
+                chunkField.set(packet, new ChunkCoordIntPair(section.getChunkX(), section.getChunkZ()));
+                changesField.set(packet, changes);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+
+            connection.sendPacket(packet);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isAir(ChunkSnapshot chunk, int x, int y, int z) {
+        return chunk.isSectionEmpty(y >> 4) || chunk.getBlockTypeId(x & 15, y, z & 15) == 0;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void addBlock(BlockChangeBatch batch, ChunkSnapshot chunk, int x, int y, int z) {
+        Material type = Material.getMaterial(chunk.getBlockTypeId(x & 15, y, z & 15));
+        batch.add(x, y, z, type, (byte) chunk.getBlockData(x & 15, y, z & 15));
+    }
+
+}
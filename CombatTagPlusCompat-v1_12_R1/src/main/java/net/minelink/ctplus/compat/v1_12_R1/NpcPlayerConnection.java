@@ -31,8 +31,11 @@ import net.minecraft.server.v1_12_R1.PlayerConnection;
 
 public final class NpcPlayerConnection extends PlayerConnection {
 
+    // The network manager stub keeps no per connection state, so every NPC can share the one instance
+    private static final NpcNetworkManager NETWORK_MANAGER = new NpcNetworkManager();
+
     public NpcPlayerConnection(EntityPlayer entityplayer) {
-        super(MinecraftServer.getServer(), new NpcNetworkManager(), entityplayer);
+        super(MinecraftServer.getServer(), NETWORK_MANAGER, entityplayer);
     }
 
     @Override
@@ -0,0 +1,74 @@
+package net.minelink.ctplus.compat.v1_16_R3;
+
+import net.minecraft.server.v1_16_R3.IBlockData;
+import net.minecraft.server.v1_16_R3.PacketPlayOutMultiBlockChange;
+import net.minecraft.server.v1_16_R3.PlayerConnection;
+import net.minecraft.server.v1_16_R3.SectionPosition;
+import net.minelink.ctplus.compat.api.BlockChangeBatch;
+import net.minelink.ctplus.compat.api.BlockChangeHelper;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.craftbukkit.v1_16_R3.entity.CraftPlayer;
+import org.bukkit.craftbukkit.v1_16_R3.util.CraftMagicNumbers;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Field;
+
+public final class BlockChangeHelperImpl implements BlockChangeHelper {
+
+    private final Field sectionField;
+
+    private final Field positionsField;
+
+    private final Field blocksField;
+
+    public BlockChangeHelperImpl() {
+        try {
+            sectionField = PacketPlayOutMultiBlockChange.class.getDeclaredField("a");
+            sectionField.setAccessible(true);
+            positionsField = PacketPlayOutMultiBlockChange.class.getDeclaredField("b");
+            positionsField.setAccessible(true);
+            blocksField = PacketPlayOutMultiBlockChange.class.getDeclaredField("c");
+            blocksField.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sendBlockChanges(Player player, BlockChangeBatch batch) {
+        PlayerConnection connection = ((CraftPlayer) player).getHandle().playerConnection;
+
+        for (BlockChangeBatch.Section section : batch.getSections()) {
+            short[] positions = new short[section.size()];
+            IBlockData[] blocks = new IBlockData[section.size()];
+
+            for (int i = 0; i < section.size(); i++) {
+                positions[i] = section.getPosition(i);
+                blocks[i] = CraftMagicNumbers.getBlock(section.getMaterial(i), section.getData(i));
+            }
+
+            PacketPlayOutMultiBlockChange packet = new PacketPlayOutMultiBlockChange();
+            try {
+                sectionField.set(packet, SectionPosition.a(section.getChunkX(), section.getSectionY(), section.getChunkZ()));
+                positionsField.set(packet, positions);
+                blocksField.set(packet, blocks);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+
+            connection.sendPacket(packet);
+        }
+    }
+
+    @Override
+    public boolean isAir(ChunkSnapshot chunk, int x, int y, int z) {
+        return chunk.isSectionEmpty(y >> 4) || chunk.getBlockType(x & 15, y, z & 15).isAir();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void addBlock(BlockChangeBatch batch, ChunkSnapshot chunk, int x, int y, int z) {
+        batch.add(x, y, z, chunk.getBlockType(x & 15, y, z & 15), (byte) chunk.getData(x & 15, y, z & 15));
+    }
+
+}
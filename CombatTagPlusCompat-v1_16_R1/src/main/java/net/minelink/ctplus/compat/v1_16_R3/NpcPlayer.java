@@ -1,7 +1,9 @@
 package net.minelink.ctplus.compat.v1_16_R3;
 
+import com.google.common.collect.Multimap;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.properties.Property;
+import net.minecraft.server.v1_16_R3.DamageSource;
 import net.minecraft.server.v1_16_R3.EntityPlayer;
 import net.minecraft.server.v1_16_R3.MinecraftServer;
 import net.minecraft.server.v1_16_R3.PlayerInteractManager;
@@ -9,16 +11,22 @@ import net.minecraft.server.v1_16_R3.WorldServer;
 import net.minelink.ctplus.compat.api.NpcIdentity;
 import net.minelink.ctplus.compat.api.NpcNameGeneratorFactory;
 import org.bukkit.craftbukkit.v1_16_R3.CraftWorld;
-import org.bukkit.craftbukkit.v1_16_R3.entity.CraftPlayer;
 import org.bukkit.entity.Player;
 
-import java.util.Map;
 import java.util.UUID;
 
 public final class NpcPlayer extends EntityPlayer {
 
+    // Idle NPCs only get a full tick once in this many ticks
+    private static final int IDLE_TICK_INTERVAL = 20;
+
+    // Ticks a NPC keeps ticking normally after it was last hurt
+    private static final int DAMAGE_WAKE_TICKS = 100;
+
     private NpcIdentity identity;
 
+    private int lastDamageTick = -DAMAGE_WAKE_TICKS;
+
     private NpcPlayer(MinecraftServer minecraftserver, WorldServer worldserver, GameProfile gameprofile, PlayerInteractManager playerinteractmanager) {
         super(minecraftserver, worldserver, gameprofile, playerinteractmanager);
     }
@@ -27,15 +35,38 @@ public final class NpcPlayer extends EntityPlayer {
         return identity;
     }
 
-    public static NpcPlayer valueOf(Player player) {
+    @Override
+    public void tick() {
+        // Nobody can see the NPC, so most ticks are skipped until a player comes near or it gets hurt
+        if (isIdle() && (MinecraftServer.currentTick + getId()) % IDLE_TICK_INTERVAL != 0) return;
+
+        super.tick();
+    }
+
+    @Override
+    public boolean damageEntity(DamageSource damagesource, float f) {
+        lastDamageTick = MinecraftServer.currentTick;
+        return super.damageEntity(damagesource, f);
+    }
+
+    private boolean isIdle() {
+        if (MinecraftServer.currentTick - lastDamageTick < DAMAGE_WAKE_TICKS) return false;
+
+        // Other NPCs show up as trackers too, only real players count
+        for (EntityPlayer p : NpcPlayerHelperImpl.getTrackedPlayers(this)) {
+            if (!(p instanceof NpcPlayer)) return false;
+        }
+
+        return true;
+    }
+
+    public static NpcPlayer valueOf(Player player, Multimap<String, Property> properties) {
         MinecraftServer minecraftServer = MinecraftServer.getServer();
         WorldServer worldServer = ((CraftWorld) player.getWorld()).getHandle();
         PlayerInteractManager playerInteractManager = new PlayerInteractManager(worldServer);
         GameProfile gameProfile = new GameProfile(UUID.randomUUID(), NpcNameGeneratorFactory.getNameGenerator().generate(player));
 
-        for (Map.Entry<String, Property> entry: ((CraftPlayer) player).getProfile().getProperties().entries()) {
-            gameProfile.getProperties().put(entry.getKey(), entry.getValue());
-        }
+        gameProfile.getProperties().putAll(properties);
 
         NpcPlayer npcPlayer = new NpcPlayer(minecraftServer, worldServer, gameProfile, playerInteractManager);
         npcPlayer.identity = new NpcIdentity(player);
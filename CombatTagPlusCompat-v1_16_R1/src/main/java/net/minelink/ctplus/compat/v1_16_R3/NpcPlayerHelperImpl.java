@@ -1,19 +1,17 @@
 package net.minelink.ctplus.compat.v1_16_R3;
 
-import com.google.common.collect.Lists;
-import com.mojang.datafixers.util.Pair;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+import com.mojang.authlib.properties.Property;
 import net.minecraft.server.v1_16_R3.EntityPlayer;
-import net.minecraft.server.v1_16_R3.EnumItemSlot;
 import net.minecraft.server.v1_16_R3.FoodMetaData;
-import net.minecraft.server.v1_16_R3.ItemStack;
 import net.minecraft.server.v1_16_R3.MinecraftServer;
 import net.minecraft.server.v1_16_R3.NBTCompressedStreamTools;
 import net.minecraft.server.v1_16_R3.NBTTagCompound;
 import net.minecraft.server.v1_16_R3.NBTTagList;
-import net.minecraft.server.v1_16_R3.Packet;
-import net.minecraft.server.v1_16_R3.PacketPlayOutEntityEquipment;
 import net.minecraft.server.v1_16_R3.PacketPlayOutPlayerInfo;
 import net.minecraft.server.v1_16_R3.PacketPlayOutPlayerInfo.EnumPlayerInfoAction;
+import net.minecraft.server.v1_16_R3.PlayerChunkMap;
 import net.minecraft.server.v1_16_R3.WorldNBTStorage;
 import net.minecraft.server.v1_16_R3.WorldServer;
 import net.minelink.ctplus.compat.api.NpcIdentity;
@@ -28,12 +26,44 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 public final class NpcPlayerHelperImpl implements NpcPlayerHelper {
 
+    private final Map<UUID, Multimap<String, Property>> preparedProperties = new HashMap<>();
+
+    @Override
+    public void prepare(Player player) {
+        // Do nothing if the player's profile was already copied
+        if (preparedProperties.containsKey(player.getUniqueId())) return;
+
+        preparedProperties.put(player.getUniqueId(), ImmutableMultimap.copyOf(((CraftPlayer) player).getProfile().getProperties()));
+    }
+
+    @Override
+    public void discardPrepared(UUID playerId) {
+        preparedProperties.remove(playerId);
+    }
+
     @Override
     public Player spawn(Player player) {
-        NpcPlayer npcPlayer = NpcPlayer.valueOf(player);
+        // Use the skin properties copied while the player was tagged if there are any
+        Multimap<String, Property> properties = preparedProperties.remove(player.getUniqueId());
+        if (properties == null) {
+            properties = ((CraftPlayer) player).getProfile().getProperties();
+        }
+
+        NpcPlayer npcPlayer = NpcPlayer.valueOf(player, properties);
+
         WorldServer worldServer = ((CraftWorld) player.getWorld()).getHandle();
         Location l = player.getLocation();
 
@@ -42,32 +72,28 @@ public final class NpcPlayerHelperImpl implements NpcPlayerHelper {
         npcPlayer.playerInteractManager.a(worldServer);
         npcPlayer.invulnerableTicks = 0;
 
-        for (Object o : MinecraftServer.getServer().getPlayerList().players) {
-            if (!(o instanceof EntityPlayer) || o instanceof NpcPlayer) continue;
-
-            PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo(EnumPlayerInfoAction.ADD_PLAYER, npcPlayer);
-            ((EntityPlayer) o).playerConnection.sendPacket(packet);
-        }
-
-        worldServer.addEntity(npcPlayer);
-        worldServer.addPlayerJoin(npcPlayer);
-
         return npcPlayer.getBukkitEntity();
     }
 
     @Override
-    public void despawn(Player player) {
+    public void addToWorld(Player player) {
         EntityPlayer entity = ((CraftPlayer) player).getHandle();
 
         if (!(entity instanceof NpcPlayer)) {
             throw new IllegalArgumentException();
         }
 
-        for (Object o : MinecraftServer.getServer().getPlayerList().players) {
-            if (!(o instanceof EntityPlayer) || o instanceof NpcPlayer) continue;
+        WorldServer worldServer = (WorldServer) entity.world;
+        worldServer.addEntity(entity);
+        worldServer.addPlayerJoin(entity);
+    }
+
+    @Override
+    public void despawn(Player player) {
+        EntityPlayer entity = ((CraftPlayer) player).getHandle();
 
-            PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo(EnumPlayerInfoAction.REMOVE_PLAYER, entity);
-            ((EntityPlayer) o).playerConnection.sendPacket(packet);
+        if (!(entity instanceof NpcPlayer)) {
+            throw new IllegalArgumentException();
         }
 
         WorldServer worldServer = MinecraftServer.getServer().getWorldServer(entity.getSpawnDimension());
@@ -90,36 +116,18 @@ public final class NpcPlayerHelperImpl implements NpcPlayerHelper {
     }
 
     @Override
-    public void updateEquipment(Player player) {
+    public Object getOfflineSyncState(Player player) {
         EntityPlayer entity = ((CraftPlayer) player).getHandle();
 
         if (!(entity instanceof NpcPlayer)) {
             throw new IllegalArgumentException();
         }
 
-        Location l = player.getLocation();
-        int rangeSquared = 512 * 512;
-
-        for (EnumItemSlot slot : EnumItemSlot.values()) {
-            ItemStack item = entity.getEquipment(slot);
-            if (item == null) continue;
-
-            Packet packet = new PacketPlayOutEntityEquipment(entity.getId(), Lists.newArrayList(new Pair(slot, item)));
-
-            for (Object o : entity.world.getPlayers()) {
-                if (!(o instanceof EntityPlayer)) continue;
-
-                EntityPlayer p = (EntityPlayer) o;
-                Location loc = p.getBukkitEntity().getLocation();
-                if (l.getWorld().equals(loc.getWorld()) && l.distanceSquared(loc) <= rangeSquared) {
-                    p.playerConnection.sendPacket(packet);
-                }
-            }
-        }
+        return createSnapshot((NpcPlayer) entity);
     }
 
     @Override
-    public void syncOffline(Player player) {
+    public Runnable createOfflineSync(Player player) {
         EntityPlayer entity = ((CraftPlayer) player).getHandle();
 
         if (!(entity instanceof NpcPlayer)) {
@@ -127,14 +135,24 @@ public final class NpcPlayerHelperImpl implements NpcPlayerHelper {
         }
 
         NpcPlayer npcPlayer = (NpcPlayer) entity;
-        NpcIdentity identity = npcPlayer.getNpcIdentity();
+        final NpcIdentity identity = npcPlayer.getNpcIdentity();
         Player p = Bukkit.getPlayer(identity.getId());
-        if (p != null && p.isOnline()) return;
+        if (p != null && p.isOnline()) return null;
 
-        WorldNBTStorage worldStorage = (WorldNBTStorage) ((CraftWorld) Bukkit.getWorlds().get(0)).getHandle().getWorldData();
-        NBTTagCompound playerNbt = worldStorage.getPlayerData(identity.getId().toString());
-        if (playerNbt == null) return;
+        final WorldNBTStorage worldStorage = (WorldNBTStorage) ((CraftWorld) Bukkit.getWorlds().get(0)).getHandle().getWorldData();
+
+        // Snapshot the NPC state on the main thread, it is merged into the player data file later
+        final NBTTagCompound snapshot = createSnapshot(npcPlayer);
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                writeOffline(worldStorage, identity, snapshot);
+            }
+        };
+    }
 
+    private static NBTTagCompound createSnapshot(NpcPlayer npcPlayer) {
         // foodTickTimer is now private in 1.8.3 -- still private in 1.12
         Field foodTickTimerField;
         int foodTickTimer;
@@ -142,67 +160,86 @@ public final class NpcPlayerHelperImpl implements NpcPlayerHelper {
         try {
             foodTickTimerField = FoodMetaData.class.getDeclaredField("foodTickTimer");
             foodTickTimerField.setAccessible(true);
-            foodTickTimer = foodTickTimerField.getInt(entity.getFoodData());
+            foodTickTimer = foodTickTimerField.getInt(npcPlayer.getFoodData());
         } catch (NoSuchFieldException | IllegalAccessException e) {
             throw new RuntimeException(e);
         }
 
-        playerNbt.setShort("Air", (short) entity.getAirTicks());
+        NBTTagCompound snapshot = new NBTTagCompound();
+        snapshot.setShort("Air", (short) npcPlayer.getAirTicks());
         // Health is now just a float; fractional is not stored separately. (1.12)
-        playerNbt.setShort("HurtTime", (short) entity.hurtTicks);
-        playerNbt.setInt("HurtByTimestamp", entity.hurtTimestamp);
-        playerNbt.setFloat("Health", entity.getHealth());
-        playerNbt.setFloat("AbsorptionAmount", entity.getAbsorptionHearts());
-        playerNbt.setInt("XpTotal", entity.expTotal);
-        playerNbt.setInt("foodLevel", entity.getFoodData().foodLevel);
-        playerNbt.setInt("foodTickTimer", foodTickTimer);
-        playerNbt.setFloat("foodSaturationLevel", entity.getFoodData().saturationLevel);
-        playerNbt.setFloat("foodExhaustionLevel", entity.getFoodData().exhaustionLevel);
-        playerNbt.setShort("Fire", (short) entity.fireTicks);
-        playerNbt.set("Inventory", npcPlayer.inventory.a(new NBTTagList()));
+        snapshot.setShort("HurtTime", (short) npcPlayer.hurtTicks);
+        snapshot.setInt("HurtByTimestamp", npcPlayer.hurtTimestamp);
+        snapshot.setFloat("Health", npcPlayer.getHealth());
+        snapshot.setFloat("AbsorptionAmount", npcPlayer.getAbsorptionHearts());
+        snapshot.setInt("XpTotal", npcPlayer.expTotal);
+        snapshot.setInt("foodLevel", npcPlayer.getFoodData().foodLevel);
+        snapshot.setInt("foodTickTimer", foodTickTimer);
+        snapshot.setFloat("foodSaturationLevel", npcPlayer.getFoodData().saturationLevel);
+        snapshot.setFloat("foodExhaustionLevel", npcPlayer.getFoodData().exhaustionLevel);
+        snapshot.setShort("Fire", (short) npcPlayer.fireTicks);
+        snapshot.set("Inventory", npcPlayer.inventory.a(new NBTTagList()));
+
+        return snapshot;
+    }
+
+    private static void writeOffline(WorldNBTStorage worldStorage, NpcIdentity identity, NBTTagCompound snapshot) {
+        NBTTagCompound playerNbt = worldStorage.getPlayerData(identity.getId().toString());
+        if (playerNbt == null) return;
+
+        for (String key : snapshot.getKeys()) {
+            playerNbt.set(key, snapshot.get(key));
+        }
 
         File file1 = new File(worldStorage.getPlayerDir(), identity.getId().toString() + ".dat.tmp");
         File file2 = new File(worldStorage.getPlayerDir(), identity.getId().toString() + ".dat");
 
-        try {
-            NBTCompressedStreamTools.a(playerNbt, new FileOutputStream(file1));
+        try (FileOutputStream out = new FileOutputStream(file1)) {
+            NBTCompressedStreamTools.a(playerNbt, out);
         } catch (IOException e) {
             throw new RuntimeException("Failed to save player data for " + identity.getName(), e);
         }
 
-        if ((!file2.exists() || file2.delete()) && !file1.renameTo(file2)) {
-            throw new RuntimeException("Failed to save player data for " + identity.getName());
+        // Replace the old player data in one step so a crash never leaves a half written file
+        try {
+            Files.move(file1.toPath(), file2.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save player data for " + identity.getName(), e);
         }
     }
 
     @Override
-    public void createPlayerList(Player player) {
-        EntityPlayer p = ((CraftPlayer) player).getHandle();
+    public void addPlayerInfo(Collection<? extends Player> viewers, Collection<Player> npcs) {
+        sendPlayerInfo(viewers, npcs, EnumPlayerInfoAction.ADD_PLAYER);
+    }
+
+    @Override
+    public void removePlayerInfo(Collection<? extends Player> viewers, Collection<Player> npcs) {
+        sendPlayerInfo(viewers, npcs, EnumPlayerInfoAction.REMOVE_PLAYER);
+    }
 
-        for (WorldServer worldServer : MinecraftServer.getServer().getWorlds()) {
-            for (Object o : worldServer.players) {
-                if (!(o instanceof NpcPlayer)) continue;
+    private static void sendPlayerInfo(Collection<? extends Player> viewers, Collection<Player> npcs, EnumPlayerInfoAction action) {
+        if (npcs.isEmpty()) return;
 
-                NpcPlayer npcPlayer = (NpcPlayer) o;
-                PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo(EnumPlayerInfoAction.ADD_PLAYER, npcPlayer);
-                p.playerConnection.sendPacket(packet);
-            }
+        List<EntityPlayer> entities = new ArrayList<>(npcs.size());
+        for (Player npc : npcs) {
+            entities.add(((CraftPlayer) npc).getHandle());
         }
-    }
 
-    @Override
-    public void removePlayerList(Player player) {
-        EntityPlayer p = ((CraftPlayer) player).getHandle();
+        // All of the NPCs share one packet, and the same packet is sent to every viewer
+        PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo(action, entities);
 
-        for (WorldServer worldServer : MinecraftServer.getServer().getWorlds()) {
-            for (Object o : worldServer.players) {
-                if (!(o instanceof NpcPlayer)) continue;
+        for (Player viewer : viewers) {
+            EntityPlayer p = ((CraftPlayer) viewer).getHandle();
+            if (p instanceof NpcPlayer) continue;
 
-                NpcPlayer npcPlayer = (NpcPlayer) o;
-                PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo(EnumPlayerInfoAction.REMOVE_PLAYER, npcPlayer);
-                p.playerConnection.sendPacket(packet);
-            }
+            p.playerConnection.sendPacket(packet);
         }
     }
 
+    static Set<EntityPlayer> getTrackedPlayers(EntityPlayer entity) {
+        PlayerChunkMap.EntityTracker tracker = ((WorldServer) entity.world).getChunkProvider().playerChunkMap.trackedEntities.get(entity.getId());
+        return tracker != null ? tracker.trackedPlayers : Collections.<EntityPlayer>emptySet();
+    }
+
 }
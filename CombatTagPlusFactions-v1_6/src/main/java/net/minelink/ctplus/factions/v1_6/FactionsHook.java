@@ -17,4 +17,10 @@ public class FactionsHook implements Hook {
         return !faction.isSafeZone();
     }
 
+    @Override
+    public boolean isHeightIndependent() {
+        // Land is claimed per chunk, from bedrock to the sky
+        return true;
+    }
+
 }
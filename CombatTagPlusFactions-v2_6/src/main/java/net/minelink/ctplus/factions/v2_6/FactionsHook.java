@@ -16,4 +16,10 @@ public class FactionsHook implements Hook {
         return faction.getFlag(FFlag.PVP);
     }
 
+    @Override
+    public boolean isHeightIndependent() {
+        // Land is claimed per chunk, from bedrock to the sky
+        return true;
+    }
+
 }
@@ -3,11 +3,25 @@ package net.minelink.ctplus.factions.v2_7;
 import com.massivecraft.factions.entity.BoardColl;
 import com.massivecraft.factions.entity.Faction;
 import com.massivecraft.factions.entity.MFlag;
+import com.massivecraft.factions.event.EventFactionsChunksChange;
+import com.massivecraft.factions.event.EventFactionsDisband;
+import com.massivecraft.factions.event.EventFactionsFlagChange;
 import com.massivecraft.massivecore.ps.PS;
 import net.minelink.ctplus.hook.Hook;
+import net.minelink.ctplus.hook.RegionChangeEvent;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.java.JavaPlugin;
 
-public class FactionsHook implements Hook {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+public class FactionsHook implements Hook, Listener {
 
     @Override
     public boolean isPvpEnabledAt(Location location) {
@@ -16,4 +30,59 @@ public class FactionsHook implements Hook {
         return faction.getFlag(MFlag.ID_PVP);
     }
 
+    @Override
+    public long[] getPvpEnabledColumns(World world, int chunkX, int chunkZ, int y) {
+        // Land is claimed per chunk, so one lookup answers for every column
+        long[] columns = new long[4];
+        if (isPvpEnabledAt(new Location(world, chunkX << 4, y, chunkZ << 4))) {
+            Arrays.fill(columns, -1L);
+        }
+
+        return columns;
+    }
+
+    @Override
+    public boolean isHeightIndependent() {
+        // Land is claimed per chunk, from bedrock to the sky
+        return true;
+    }
+
+    @Override
+    public boolean isPublishingRegionChanges() {
+        // Claims, flag changes and disbanded factions are published as they happen
+        return true;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunksChange(EventFactionsChunksChange event) {
+        publish(event.getChunks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFlagChange(EventFactionsFlagChange event) {
+        if (!MFlag.ID_PVP.equals(event.getFlag().getId())) return;
+
+        // Every chunk claimed by the faction now resolves differently
+        publish(BoardColl.get().getChunks(event.getFaction()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDisband(EventFactionsDisband event) {
+        // The faction's land turns into wilderness
+        publish(BoardColl.get().getChunks(event.getFaction()));
+    }
+
+    private void publish(Collection<PS> chunks) {
+        // Factions events fire before the change is made, so the chunks are taken now but published a tick later
+        final Collection<PS> changed = new ArrayList<>(chunks);
+        Bukkit.getScheduler().runTask(JavaPlugin.getProvidingPlugin(getClass()), new Runnable() {
+            @Override
+            public void run() {
+                for (PS chunk : changed) {
+                    Bukkit.getPluginManager().callEvent(new RegionChangeEvent(chunk.getWorld(), chunk.getChunkX(), chunk.getChunkZ()));
+                }
+            }
+        });
+    }
+
 }
@@ -1,9 +1,48 @@
 package net.minelink.ctplus.hook;
 
 import org.bukkit.Location;
+import org.bukkit.World;
 
 public interface Hook {
 
     boolean isPvpEnabledAt(Location loc);
 
+    /**
+     * Looks up every column of a chunk at the given height in one call. The result is a 256 bit mask packed into
+     * four longs where bit {@code z << 4 | x} is set if PvP is enabled in that column. Hooks that can resolve a
+     * whole chunk at once should override this, the default asks {@link #isPvpEnabledAt(Location)} per column.
+     */
+    default long[] getPvpEnabledColumns(World world, int chunkX, int chunkZ, int y) {
+        long[] columns = new long[4];
+        Location probe = new Location(world, 0, y, 0);
+
+        for (int column = 0; column < 256; column++) {
+            probe.setX((chunkX << 4) + (column & 15));
+            probe.setZ((chunkZ << 4) + (column >> 4));
+
+            if (isPvpEnabledAt(probe)) {
+                columns[column >> 6] |= 1L << column;
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * Whether {@link #getPvpEnabledColumns(World, int, int, int)} gives the same answer at every height of a column.
+     * Hooks that only protect whole columns, such as chunk claims, should return true so a single lookup can stand in
+     * for a whole chunk. Otherwise each height is looked up separately as it's asked for.
+     */
+    default boolean isHeightIndependent() {
+        return false;
+    }
+
+    /**
+     * Whether this hook calls a {@link RegionChangeEvent} for every change that could affect its answers. Cached
+     * answers of hooks that can't observe every change are only kept for a short while.
+     */
+    default boolean isPublishingRegionChanges() {
+        return false;
+    }
+
 }
@@ -0,0 +1,78 @@
+package net.minelink.ctplus.hook;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Called by hooks when claims, regions or their PvP flags change so cached lookups for the affected chunks can be
+ * dropped. A null world means every world is affected, and an event without bounds covers the whole world.
+ */
+public final class RegionChangeEvent extends Event {
+
+    private static final HandlerList handlers = new HandlerList();
+
+    private final String world;
+
+    private final boolean bounded;
+
+    private final int minChunkX;
+
+    private final int minChunkZ;
+
+    private final int maxChunkX;
+
+    private final int maxChunkZ;
+
+    public RegionChangeEvent(String world) {
+        this.world = world;
+        this.bounded = false;
+        this.minChunkX = this.minChunkZ = this.maxChunkX = this.maxChunkZ = 0;
+    }
+
+    public RegionChangeEvent(String world, int chunkX, int chunkZ) {
+        this(world, chunkX, chunkZ, chunkX, chunkZ);
+    }
+
+    public RegionChangeEvent(String world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        this.world = world;
+        this.bounded = true;
+        this.minChunkX = minChunkX;
+        this.minChunkZ = minChunkZ;
+        this.maxChunkX = maxChunkX;
+        this.maxChunkZ = maxChunkZ;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public int getMinChunkX() {
+        return minChunkX;
+    }
+
+    public int getMinChunkZ() {
+        return minChunkZ;
+    }
+
+    public int getMaxChunkX() {
+        return maxChunkX;
+    }
+
+    public int getMaxChunkZ() {
+        return maxChunkZ;
+    }
+
+}
@@ -1,17 +1,105 @@
 package net.minelink.ctplus.worldguard.v6;
 
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldguard.bukkit.WGBukkit;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
 import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import net.minelink.ctplus.hook.Hook;
+import net.minelink.ctplus.hook.RegionChangeEvent;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.bukkit.plugin.java.JavaPlugin;
 
-public final class WorldGuardHook implements Hook {
+import java.util.Arrays;
+import java.util.Set;
+
+public final class WorldGuardHook implements Hook, Listener {
+
+    private static final Set<String> REGION_COMMANDS = ImmutableSet.of("rg", "region", "regions", "wg", "worldguard");
 
     @Override
     public boolean isPvpEnabledAt(Location loc) {
-        StateFlag.State s = WGBukkit.getRegionManager(loc.getWorld()).getApplicableRegions(loc).getFlag(DefaultFlag.PVP);
+        // Region support is disabled in this world
+        RegionManager manager = WGBukkit.getRegionManager(loc.getWorld());
+        if (manager == null) return true;
+
+        StateFlag.State s = manager.getApplicableRegions(loc).getFlag(DefaultFlag.PVP);
         return s == null || s != StateFlag.State.DENY;
     }
 
+    @Override
+    public long[] getPvpEnabledColumns(World world, int chunkX, int chunkZ, int y) {
+        int minX = chunkX << 4;
+        int minZ = chunkZ << 4;
+
+        long[] columns = new long[4];
+
+        // Region support is disabled in this world
+        RegionManager manager = WGBukkit.getRegionManager(world);
+        if (manager == null) {
+            Arrays.fill(columns, -1L);
+            return columns;
+        }
+
+        // Find every region touching this slice of the chunk
+        ProtectedRegion slice = new ProtectedCuboidRegion("__ctplus_slice__",
+                new BlockVector(minX, y, minZ), new BlockVector(minX + 15, y, minZ + 15));
+        ApplicableRegionSet regions = manager.getApplicableRegions(slice);
+
+        // If every region covers the whole slice then all columns share the same flags
+        for (ProtectedRegion region : regions) {
+            if (region instanceof GlobalProtectedRegion) continue;
+
+            if (!(region instanceof ProtectedCuboidRegion) || !region.contains(minX, y, minZ) ||
+                    !region.contains(minX + 15, y, minZ + 15)) {
+                return Hook.super.getPvpEnabledColumns(world, chunkX, chunkZ, y);
+            }
+        }
+
+        if (isPvpEnabledAt(new Location(world, minX, y, minZ))) {
+            Arrays.fill(columns, -1L);
+        }
+
+        return columns;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
+        checkCommand(event.getMessage().substring(1));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onServerCommand(ServerCommandEvent event) {
+        checkCommand(event.getCommand());
+    }
+
+    private void checkCommand(String command) {
+        // WorldGuard has no region events, region commands are the next best signal that flags may have changed
+        String label = command.split(" ", 2)[0].toLowerCase();
+        label = label.substring(label.indexOf(':') + 1);
+
+        if (!REGION_COMMANDS.contains(label)) return;
+
+        // Command events fire before the command runs, so wait a tick for the change to be made. Anything slower,
+        // like an asynchronous reload, is left to the cache expiring.
+        Bukkit.getScheduler().runTask(JavaPlugin.getProvidingPlugin(getClass()), new Runnable() {
+            @Override
+            public void run() {
+                Bukkit.getPluginManager().callEvent(new RegionChangeEvent(null));
+            }
+        });
+    }
+
 }